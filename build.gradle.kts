@@ -1,3 +1,6 @@
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
 plugins {
     application
     id("java")
@@ -33,6 +36,15 @@ dependencies {
 
     compileOnly("org.projectlombok:lombok:1.18.30")
     annotationProcessor("org.projectlombok:lombok:1.18.30")
+
+    // Test
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 application {
@@ -41,4 +53,47 @@ application {
 
 tasks.shadowJar {
     archiveClassifier = "shaded"
-}
\ No newline at end of file
+}
+
+// A tiny pack used as the training run of the AppCDS archive below
+val cdsTrainingPack by tasks.registering {
+    val pack = layout.buildDirectory.file("tmp/cds/training.zip")
+    outputs.file(pack)
+    doLast {
+        val file = pack.get().asFile
+        file.parentFile.mkdirs()
+        ZipOutputStream(file.outputStream()).use { zip ->
+            zip.putNextEntry(ZipEntry("manifest.json"))
+            zip.write("""{"header":{"uuid":"00000000-0000-0000-0000-000000000000"}}""".toByteArray())
+            zip.closeEntry()
+            zip.putNextEntry(ZipEntry("texts/en_US.lang"))
+            zip.write("pack.name=Training Pack".toByteArray())
+            zip.closeEntry()
+        }
+    }
+}
+
+// Dump the classes loaded by a headless encryption into an AppCDS archive. Use it with
+// java -XX:SharedArchiveFile=EncryptMyPack-<version>.jsa -jar EncryptMyPack-<version>-shaded.jar encrypt ...
+val cdsArchive by tasks.registering(Exec::class) {
+    group = "distribution"
+    description = "Creates an AppCDS archive for the shaded jar"
+    dependsOn(tasks.shadowJar, cdsTrainingPack)
+
+    val jar = tasks.shadowJar.flatMap { it.archiveFile }
+    val pack = layout.buildDirectory.file("tmp/cds/training.zip")
+    val archive = layout.buildDirectory.file("libs/EncryptMyPack-$version.jsa")
+    inputs.file(jar)
+    outputs.file(archive)
+    val launcher = javaToolchains.launcherFor(java.toolchain)
+    doFirst { executable = launcher.get().executablePath.asFile.absolutePath }
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(
+            "-XX:ArchiveClassesAtExit=${archive.get().asFile.absolutePath}",
+            "-jar", jar.get().asFile.absolutePath,
+            "encrypt",
+            pack.get().asFile.absolutePath,
+            layout.buildDirectory.file("tmp/cds/training_encrypted.zip").get().asFile.absolutePath
+        )
+    })
+}
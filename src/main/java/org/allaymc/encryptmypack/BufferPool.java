@@ -0,0 +1,120 @@
+package org.allaymc.encryptmypack;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe pool of byte buffers, grouped by power-of-two size classes from 4 KiB to 1 MiB.
+ * <p>
+ * Buffers are always heap buffers, and callers may use their backing array: the data flows between
+ * {@code ZipFile} input streams and {@code ZipOutputStream}, which both work on byte arrays, so a
+ * direct buffer would only add a copy.
+ * <p>
+ * Hits and misses are also counted per thread, so that an encryption running on one thread can
+ * report its own hit rate while other threads use the pool.
+ *
+ * @author daoge_cmd
+ */
+public final class BufferPool {
+
+    public static final BufferPool DEFAULT = new BufferPool();
+
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 20;
+    private static final int MAX_POOLED_PER_CLASS = 32;
+
+    private final List<ArrayBlockingQueue<ByteBuffer>> sizeClasses = new ArrayList<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ThreadLocal<Counters> threadCounters = ThreadLocal.withInitial(Counters::new);
+
+    public BufferPool() {
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            sizeClasses.add(new ArrayBlockingQueue<>(MAX_POOLED_PER_CLASS));
+        }
+    }
+
+    /**
+     * Take a buffer with at least the given capacity from the pool. The buffer is cleared, but
+     * its content is not zeroed. Give it back with {@link #release(ByteBuffer)} once done.
+     *
+     * @param capacity the minimum capacity
+     * @return the buffer
+     */
+    public ByteBuffer acquire(int capacity) {
+        var sizeClass = sizeClassOf(capacity);
+        if (sizeClass >= sizeClasses.size()) {
+            // Too big to be kept in the pool
+            recordMiss();
+            return ByteBuffer.allocate(capacity);
+        }
+
+        var buffer = sizeClasses.get(sizeClass).poll();
+        if (buffer == null) {
+            recordMiss();
+            return ByteBuffer.allocate(1 << (sizeClass + MIN_SHIFT));
+        }
+
+        hits.increment();
+        threadCounters.get().hits++;
+        return buffer.clear();
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used by the caller anymore.
+     *
+     * @param buffer the buffer returned by {@link #acquire(int)}
+     */
+    public void release(ByteBuffer buffer) {
+        var sizeClass = sizeClassOf(buffer.capacity());
+        if (sizeClass >= sizeClasses.size() || buffer.capacity() != 1 << (sizeClass + MIN_SHIFT) || !buffer.hasArray() || buffer.isReadOnly()) {
+            return;
+        }
+
+        // Drop the buffer if this size class is full
+        sizeClasses.get(sizeClass).offer(buffer);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of requests of the current thread served from the pool
+     */
+    public long getThreadHits() {
+        return threadCounters.get().hits;
+    }
+
+    /**
+     * @return the number of requests of the current thread that needed a new buffer
+     */
+    public long getThreadMisses() {
+        return threadCounters.get().misses;
+    }
+
+    private void recordMiss() {
+        misses.increment();
+        threadCounters.get().misses++;
+    }
+
+    private static int sizeClassOf(int capacity) {
+        if (capacity <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    private static final class Counters {
+        private long hits;
+        private long misses;
+    }
+}
@@ -0,0 +1,61 @@
+package org.allaymc.encryptmypack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 helpers shared by the pack cache and the chunk index.
+ *
+ * @author daoge_cmd
+ */
+final class Checksums {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Checksums() {
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the lowercase hex string of the digest, which is reset
+     */
+    static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return the SHA-256 checksum of the file as a lowercase hex string
+     */
+    static String sha256(Path file) throws IOException {
+        var digest = sha256();
+        try (var input = Files.newInputStream(file)) {
+            update(digest, input);
+        }
+        return hex(digest);
+    }
+
+    static void update(MessageDigest digest, InputStream input) throws IOException {
+        var buffer = BufferPool.DEFAULT.acquire(BUFFER_SIZE);
+        try {
+            var array = buffer.array();
+            int read;
+            while ((read = input.read(array, buffer.arrayOffset(), buffer.capacity())) != -1) {
+                digest.update(array, buffer.arrayOffset(), read);
+            }
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.allaymc.encryptmypack;
+
+import com.google.gson.Gson;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An encrypted pack served in fixed-size chunks, the way packs are sent to Bedrock clients
+ * (ResourcePackChunkData).
+ * <p>
+ * {@link #writeIndex(Path, int)} stores the chunk layout of a pack in {@code <pack>.chunks},
+ * with the SHA-256 of every chunk and of the whole pack, and the size and modification time of the
+ * pack so that an index left over from a previous pack is rejected. {@link #open(Path)} memory-maps the pack
+ * and returns every chunk as a slice of the mapping, so serving a pack to many players at once
+ * neither copies it into the heap nor reads it again from the disk.
+ *
+ * @author daoge_cmd
+ */
+public final class ChunkedPack {
+
+    /**
+     * The chunk size used by the vanilla server.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final Gson GSON = new Gson();
+
+    @Getter
+    private final ChunkIndex index;
+    private final MappedByteBuffer[] segments;
+    private final long segmentSize;
+
+    private ChunkedPack(ChunkIndex index, MappedByteBuffer[] segments, long segmentSize) {
+        this.index = index;
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Split a pack into chunks and write its chunk index next to it.
+     *
+     * @param packPath  the encrypted pack
+     * @param chunkSize the size of every chunk except the last one
+     * @return the chunk index
+     */
+    public static ChunkIndex writeIndex(Path packPath, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+
+        // Read before the content, so that a pack modified while it is indexed does not match
+        var lastModified = Files.getLastModifiedTime(packPath).toMillis();
+        var size = Files.size(packPath);
+        var segmentSize = segmentSize(chunkSize);
+        var segments = map(packPath, size, segmentSize);
+        var packDigest = Checksums.sha256();
+        var chunkDigest = Checksums.sha256();
+        var chunks = new ArrayList<Chunk>();
+        for (long offset = 0; offset < size; offset += chunkSize) {
+            var chunkLength = (int) Math.min(chunkSize, size - offset);
+            var chunk = slice(segments, segmentSize, offset, chunkLength);
+            chunkDigest.update(chunk.duplicate());
+            packDigest.update(chunk);
+            chunks.add(new Chunk(offset, chunkLength, Checksums.hex(chunkDigest)));
+        }
+
+        var index = new ChunkIndex(chunkSize, size, lastModified, Checksums.hex(packDigest), chunks);
+        var indexPath = indexPathOf(packPath);
+        var temp = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, GSON.toJson(index), StandardCharsets.UTF_8);
+            Files.move(temp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return index;
+    }
+
+    /**
+     * Same as {@link #open(Path, boolean)}, without checking the SHA-256 of the pack.
+     */
+    public static ChunkedPack open(Path packPath) throws IOException {
+        return open(packPath, false);
+    }
+
+    /**
+     * Memory-map a pack whose chunk index was written by {@link #writeIndex(Path, int)}.
+     * On Windows, the pack cannot be deleted or replaced while it is mapped.
+     *
+     * @param packPath the encrypted pack
+     * @param verify   whether to also check the SHA-256 of the pack against the index, which reads the whole pack
+     * @return the chunked pack
+     * @throws IOException if the index is missing or corrupted, or was written for another version of the pack
+     */
+    public static ChunkedPack open(Path packPath, boolean verify) throws IOException {
+        ChunkIndex index;
+        try (Reader reader = Files.newBufferedReader(indexPathOf(packPath), StandardCharsets.UTF_8)) {
+            index = GSON.fromJson(reader, ChunkIndex.class);
+        } catch (RuntimeException e) {
+            throw new IOException("Chunk index of " + packPath + " is corrupted, write it again", e);
+        }
+
+        var lastModified = Files.getLastModifiedTime(packPath).toMillis();
+        var size = Files.size(packPath);
+        if (index == null || index.chunks() == null || index.size() != size || index.lastModified() != lastModified) {
+            throw new IOException("Chunk index of " + packPath + " does not match the pack, write it again");
+        }
+        if (!isValidLayout(index)) {
+            throw new IOException("Chunk index of " + packPath + " is corrupted, write it again");
+        }
+
+        var segmentSize = segmentSize(index.chunkSize());
+        var pack = new ChunkedPack(index, map(packPath, size, segmentSize), segmentSize);
+        if (verify) {
+            var digest = Checksums.sha256();
+            for (int i = 0; i < pack.getChunkCount(); i++) {
+                digest.update(pack.getChunk(i));
+            }
+            if (!Checksums.hex(digest).equals(index.sha256())) {
+                throw new IOException("Chunk index of " + packPath + " does not match the pack, write it again");
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * @return the path of the chunk index of the given pack
+     */
+    public static Path indexPathOf(Path packPath) {
+        return packPath.resolveSibling(packPath.getFileName() + ".chunks");
+    }
+
+    public int getChunkCount() {
+        return index.chunks().size();
+    }
+
+    /**
+     * Get a chunk of the pack. The returned buffer is a read-only view of the mapped file,
+     * positioned at the beginning of the chunk. This method can be called from any thread.
+     *
+     * @param chunkIndex the index of the chunk
+     * @return the content of the chunk
+     */
+    public ByteBuffer getChunk(int chunkIndex) {
+        var chunk = index.chunks().get(chunkIndex);
+        return slice(segments, segmentSize, chunk.offset(), chunk.size());
+    }
+
+    /**
+     * Check that the chunks cover the pack exactly as {@link #writeIndex(Path, int)} splits it,
+     * so that every chunk lies inside the mapped pack.
+     */
+    private static boolean isValidLayout(ChunkIndex index) {
+        var chunkSize = index.chunkSize();
+        if (chunkSize <= 0 || index.chunks().size() != (index.size() + chunkSize - 1) / chunkSize) {
+            return false;
+        }
+        for (int i = 0; i < index.chunks().size(); i++) {
+            var chunk = index.chunks().get(i);
+            var offset = (long) i * chunkSize;
+            if (chunk == null || chunk.offset() != offset || chunk.size() != Math.min(chunkSize, index.size() - offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A single mapping cannot be larger than 2 GiB, so big packs are mapped in several segments.
+    // Segments are a multiple of the chunk size so that a chunk never spans two of them
+    private static long segmentSize(int chunkSize) {
+        return (long) (Integer.MAX_VALUE / chunkSize) * chunkSize;
+    }
+
+    private static MappedByteBuffer[] map(Path packPath, long size, long segmentSize) throws IOException {
+        // The mappings stay valid once the channel is closed, and are released by the garbage collector
+        try (var channel = FileChannel.open(packPath)) {
+            var segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                var position = i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+            return segments;
+        }
+    }
+
+    private static ByteBuffer slice(MappedByteBuffer[] segments, long segmentSize, long offset, int length) {
+        return segments[(int) (offset / segmentSize)].slice((int) (offset % segmentSize), length);
+    }
+
+    /**
+     * The chunk layout of a pack.
+     *
+     * @param chunkSize    the size of every chunk except the last one
+     * @param size         the size of the pack in bytes
+     * @param lastModified the modification time of the pack in milliseconds when the index was written
+     * @param sha256       the SHA-256 checksum of the pack
+     * @param chunks       the chunks, in order
+     */
+    public record ChunkIndex(int chunkSize, long size, long lastModified, String sha256, List<Chunk> chunks) {}
+
+    /**
+     * @param offset the offset of the chunk in the pack
+     * @param size   the size of the chunk in bytes
+     * @param sha256 the SHA-256 checksum of the chunk
+     */
+    public record Chunk(long offset, int size, String sha256) {}
+}
@@ -1,15 +1,94 @@
 package org.allaymc.encryptmypack;
 
-import com.formdev.flatlaf.themes.FlatMacDarkLaf;
-
-import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 
 /**
  * @author daoge_cmd
  */
 public class EncryptMyPack {
+
+    private static final String USAGE = """
+            Usage:
+              encrypt [options] <input> <output> [key]   Encrypt a pack, a random key is generated if absent
+              decrypt <input> <output> <key>             Decrypt a pack with its key
+            Encryption options:
+              --minify-json    Remove whitespace and comments from json files before encrypting them
+              --optimize-png   Recompress png files with the best deflate level before encrypting them
+              --dedupe         Encrypt files with identical content only once
+              --chunks         Also write <output>.chunks, the chunk index used to serve the pack
+            Run without arguments to open the graphical interface.""";
+
     public static void main(String[] args) {
-        FlatMacDarkLaf.setup();
-        SwingUtilities.invokeLater(GUI::new);
+        if (args.length == 0) {
+            GUI.launch();
+            return;
+        }
+
+        // Headless mode. Nothing below touches AWT, so Swing, FlatLaf, JNA and forms_rt are never loaded
+        System.setProperty("java.awt.headless", "true");
+        System.exit(runHeadless(args));
+    }
+
+    private static int runHeadless(String[] args) {
+        var options = EncryptOptions.builder();
+        var writeChunkIndex = false;
+        var arguments = new ArrayList<String>();
+        for (var arg : args) {
+            switch (arg) {
+                case "--minify-json" -> options.transformer(new JsonMinifier());
+                case "--optimize-png" -> options.transformer(new PngOptimizer());
+                case "--dedupe" -> options.deduplicate(true);
+                case "--chunks" -> writeChunkIndex = true;
+                default -> {
+                    if (arg.startsWith("--")) {
+                        System.err.println("Unknown option: " + arg);
+                        System.err.println(USAGE);
+                        return 2;
+                    }
+                    arguments.add(arg);
+                }
+            }
+        }
+
+        if (arguments.size() < 3) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        var inputPath = Path.of(arguments.get(1));
+        var outputPath = Path.of(arguments.get(2));
+        return switch (arguments.get(0)) {
+            case "encrypt" -> {
+                var key = arguments.size() > 3 ? arguments.get(3) : PackEncryptor.generateRandomKey();
+                if (!PackEncryptor.encrypt(inputPath, outputPath, key, options.build())) {
+                    yield 1;
+                }
+                yield writeChunkIndex ? writeChunkIndex(outputPath) : 0;
+            }
+            case "decrypt" -> {
+                if (arguments.size() < 4) {
+                    System.err.println(USAGE);
+                    yield 2;
+                }
+                yield PackEncryptor.decrypt(inputPath, outputPath, arguments.get(3)) ? 0 : 1;
+            }
+            default -> {
+                System.err.println(USAGE);
+                yield 2;
+            }
+        };
+    }
+
+    private static int writeChunkIndex(Path packPath) {
+        try {
+            var index = ChunkedPack.writeIndex(packPath, ChunkedPack.DEFAULT_CHUNK_SIZE);
+            System.out.println("Wrote " + index.chunks().size() + " chunks to " + ChunkedPack.indexPathOf(packPath));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Failed to write chunk index: " + e);
+            return 1;
+        }
     }
 }
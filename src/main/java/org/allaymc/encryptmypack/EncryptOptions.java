@@ -0,0 +1,61 @@
+package org.allaymc.encryptmypack;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Optional settings of {@link PackEncryptor#encrypt(java.nio.file.Path, java.nio.file.Path, String, EncryptOptions)}.
+ *
+ * @author daoge_cmd
+ */
+@Getter
+@Builder
+public final class EncryptOptions {
+
+    public static final EncryptOptions DEFAULT = EncryptOptions.builder().build();
+
+    /**
+     * Transformers applied to the files before they are encrypted. The first transformer
+     * that accepts a file is used. Files that are not encrypted, such as manifest.json, are
+     * never transformed.
+     */
+    @Singular
+    private final List<FileTransformer> transformers;
+
+    /**
+     * Notified after each entry of the pack is processed, may be {@code null}. It is called on the
+     * thread running the encryption.
+     */
+    private final ProgressListener progressListener;
+
+    /**
+     * Receive the statistics of the encryption once the pack is written, may be {@code null}.
+     */
+    private final Consumer<EncryptReport> reportListener;
+
+    /**
+     * Encrypt files with identical content, such as the same texture in several sub packs, only
+     * once. They share the same ciphertext and entry key in the output.
+     */
+    private final boolean deduplicate;
+
+    /**
+     * Find the transformer for the given file.
+     *
+     * @param path the path of the file in the pack
+     * @return the transformer, or {@code null} if the file should be encrypted as it is
+     */
+    public FileTransformer findTransformer(String path) {
+        for (var transformer : transformers) {
+            if (transformer.accepts(path)) {
+                return transformer;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,91 @@
+package org.allaymc.encryptmypack;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Statistics collected while encrypting a pack.
+ *
+ * @author daoge_cmd
+ */
+@Slf4j
+@Getter
+public final class EncryptReport {
+
+    private long encryptedBytes;
+    private long encryptNanos;
+    private int transformedFiles;
+    private long bytesBeforeTransform;
+    private long bytesAfterTransform;
+    private int duplicateFiles;
+    private long duplicateBytes;
+    private long bufferPoolHits;
+    private long bufferPoolMisses;
+
+    void recordEncryption(long bytes, long nanos) {
+        encryptedBytes += bytes;
+        encryptNanos += nanos;
+    }
+
+    void recordTransform(long before, long after) {
+        transformedFiles++;
+        bytesBeforeTransform += before;
+        bytesAfterTransform += after;
+    }
+
+    void recordDuplicate(long bytes) {
+        duplicateFiles++;
+        duplicateBytes += bytes;
+    }
+
+    void recordBufferPool(long hits, long misses) {
+        bufferPoolHits += hits;
+        bufferPoolMisses += misses;
+    }
+
+    /**
+     * Estimate the encryption time saved by the transformers, based on the throughput
+     * measured during this run.
+     *
+     * @return the saved time in nanoseconds
+     */
+    public long estimateTransformSavedNanos() {
+        return estimateEncryptNanos(bytesBeforeTransform - bytesAfterTransform);
+    }
+
+    /**
+     * Estimate the encryption time saved by reusing the ciphertext of duplicate files.
+     *
+     * @return the saved time in nanoseconds
+     */
+    public long estimateDuplicateSavedNanos() {
+        return estimateEncryptNanos(duplicateBytes);
+    }
+
+    private long estimateEncryptNanos(long bytes) {
+        if (encryptedBytes == 0) {
+            return 0;
+        }
+
+        return (long) ((double) bytes * encryptNanos / encryptedBytes);
+    }
+
+    void log() {
+        if (transformedFiles != 0) {
+            var saved = bytesBeforeTransform - bytesAfterTransform;
+            log.info("Transformed {} files, saved {} bytes ({}%) and about {} ms of encryption",
+                    transformedFiles, saved,
+                    String.format("%.1f", bytesBeforeTransform == 0 ? 0 : 100.0 * saved / bytesBeforeTransform),
+                    estimateTransformSavedNanos() / 1_000_000);
+        }
+        if (duplicateFiles != 0) {
+            log.info("Reused the ciphertext of {} duplicate files, skipped encrypting {} bytes (about {} ms)",
+                    duplicateFiles, duplicateBytes, estimateDuplicateSavedNanos() / 1_000_000);
+        }
+        var bufferRequests = bufferPoolHits + bufferPoolMisses;
+        if (bufferRequests != 0) {
+            log.info("Buffer pool: {} hits, {} misses ({}% hit rate)",
+                    bufferPoolHits, bufferPoolMisses, String.format("%.1f", 100.0 * bufferPoolHits / bufferRequests));
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package org.allaymc.encryptmypack;
+
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipFile;
+
+/**
+ * An on-disk cache of encrypted packs, so that a server does not need to encrypt the same
+ * packs again on every start.
+ * <p>
+ * Entries are keyed by the SHA-256 of the input pack, the pack key and the encryption options.
+ * Each entry is a {@code <hash>.zip} archive plus a {@code <hash>.json} metadata file holding the
+ * checksum of the archive, which is verified on every hit. The least recently used entries are
+ * evicted once the total size goes over the limit.
+ * <p>
+ * Eviction also removes incomplete entries and temporary files left behind by processes that died.
+ * <p>
+ * Several processes can share the same directory: work on an entry is guarded by a file lock
+ * on {@code <xx>.lock}, {@code xx} being the first byte of the hash, and files only appear in
+ * the cache through atomic moves.
+ *
+ * @author daoge_cmd
+ */
+@Slf4j
+public final class EncryptedPackCache {
+
+    private static final Gson GSON = new Gson();
+    private static final int HASH_LENGTH = 64;
+    private static final Duration TEMP_FILE_MAX_AGE = Duration.ofHours(1);
+    // FileChannel locks are held by the whole jvm, so threads of the same process need their own locks.
+    // There is one per lock file, so at most 256 per cache directory
+    private static final ConcurrentHashMap<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * @param directory the cache directory, created if absent
+     * @param maxSize   the maximum total size of the cached archives in bytes
+     */
+    public EncryptedPackCache(Path directory, long maxSize) throws IOException {
+        this.directory = Files.createDirectories(directory).toAbsolutePath();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the encrypted version of the given pack, encrypting it only if the cache
+     * does not have it yet.
+     *
+     * @param inputPath the pack to encrypt
+     * @param key       the pack key
+     * @param options   the encryption options
+     * @return the cached pack, or {@code null} if the pack cannot be encrypted
+     */
+    public CachedPack encrypt(Path inputPath, String key, EncryptOptions options) {
+        try {
+            var hash = hashInput(inputPath, key, options);
+            CachedPack pack;
+            try (var ignored = lock(hash)) {
+                pack = load(hash, key);
+                if (pack != null) {
+                    log.info("Cache hit for pack {}: {}", inputPath, pack.path());
+                    return pack;
+                }
+
+                pack = store(hash, inputPath, key, options);
+            }
+
+            if (pack != null) {
+                evict(hash);
+            }
+            return pack;
+        } catch (IOException e) {
+            log.error("Failed to access pack cache {}", directory, e);
+            return null;
+        }
+    }
+
+    private CachedPack load(String hash, String key) throws IOException {
+        var archive = directory.resolve(hash + ".zip");
+        var metadataFile = directory.resolve(hash + ".json");
+        if (!Files.isRegularFile(archive) || !Files.isRegularFile(metadataFile)) {
+            return null;
+        }
+
+        Metadata metadata;
+        try (Reader reader = Files.newBufferedReader(metadataFile, StandardCharsets.UTF_8)) {
+            metadata = GSON.fromJson(reader, Metadata.class);
+        } catch (Exception e) {
+            metadata = null;
+        }
+        if (metadata == null || Files.size(archive) != metadata.size() || !Checksums.sha256(archive).equals(metadata.sha256())) {
+            log.warn("Cached pack {} is corrupted, encrypting it again", archive);
+            Files.deleteIfExists(metadataFile);
+            deleteArchive(archive);
+            return null;
+        }
+
+        // The metadata file's modification time is the last access time used by eviction
+        Files.setLastModifiedTime(metadataFile, FileTime.fromMillis(System.currentTimeMillis()));
+        return new CachedPack(archive, key, metadata.contentId(), metadata.size(), metadata.sha256());
+    }
+
+    private CachedPack store(String hash, Path inputPath, String key, EncryptOptions options) throws IOException {
+        var archive = directory.resolve(hash + ".zip");
+        var temp = Files.createTempFile(directory, hash, ".zip.tmp");
+        try {
+            if (!PackEncryptor.encrypt(inputPath, temp, key, options)) {
+                return null;
+            }
+
+            String contentId;
+            try (var zip = new ZipFile(temp.toFile())) {
+                contentId = PackEncryptor.findPackUUID(zip);
+            }
+            var metadata = new Metadata(contentId, Files.size(temp), Checksums.sha256(temp));
+            // A chunk index written for a previous version of the archive would be stale
+            Files.deleteIfExists(ChunkedPack.indexPathOf(archive));
+            Files.move(temp, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            var metadataTemp = Files.createTempFile(directory, hash, ".json.tmp");
+            Files.writeString(metadataTemp, GSON.toJson(metadata), StandardCharsets.UTF_8);
+            Files.move(metadataTemp, directory.resolve(hash + ".json"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new CachedPack(archive, key, contentId, metadata.size(), metadata.sha256());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void evict(String keptHash) throws IOException {
+        var entries = new HashMap<String, Entry>();
+        var staleBefore = System.currentTimeMillis() - TEMP_FILE_MAX_AGE.toMillis();
+        try (var files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                try {
+                    scan(file, entries, staleBefore);
+                } catch (IOException e) {
+                    // Removed by another process in the meantime
+                }
+            }
+        }
+
+        var totalSize = 0L;
+        var candidates = new ArrayList<Map.Entry<String, Entry>>();
+        for (var entry : entries.entrySet()) {
+            if (entry.getKey().equals(keptHash)) {
+                // Never evict the pack that is being returned to the caller
+                totalSize += entry.getValue().size;
+                continue;
+            }
+            if (entry.getValue().isComplete() || !deleteEntry(entry.getKey(), true)) {
+                // Entries that are still being written are incomplete too, and are locked
+                totalSize += entry.getValue().size;
+                candidates.add(entry);
+            }
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        candidates.sort(Comparator.comparing(entry -> entry.getValue().lastAccess));
+        for (var entry : candidates) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (deleteEntry(entry.getKey(), false)) {
+                totalSize -= entry.getValue().size;
+            }
+        }
+    }
+
+    /**
+     * Add a file of the cache directory to the entry it belongs to, or delete it if it is a
+     * temporary file left behind by a process that died.
+     */
+    private static void scan(Path file, Map<String, Entry> entries, long staleBefore) throws IOException {
+        var name = file.getFileName().toString();
+        if (name.length() < HASH_LENGTH || !isHash(name.substring(0, HASH_LENGTH))) {
+            // Lock files and files that do not belong to the cache
+            return;
+        }
+
+        var hash = name.substring(0, HASH_LENGTH);
+        var suffix = name.substring(HASH_LENGTH);
+        if (suffix.endsWith(".tmp")) {
+            // Temporary files are written continuously, an old one is not in use anymore
+            if (Files.getLastModifiedTime(file).toMillis() < staleBefore) {
+                Files.deleteIfExists(file);
+                log.info("Deleted stale temporary file {}", file);
+            }
+            return;
+        }
+
+        var entry = entries.computeIfAbsent(hash, ignored -> new Entry());
+        var lastModified = Files.getLastModifiedTime(file);
+        if (suffix.equals(".json")) {
+            // The metadata file's modification time is the last access time
+            entry.metadata = true;
+            entry.lastAccess = lastModified;
+            return;
+        }
+
+        if (suffix.equals(".zip")) {
+            entry.archive = true;
+            entry.size = Files.size(file);
+        }
+        // Otherwise the chunk index, which is deleted together with the archive
+        if (!entry.metadata) {
+            entry.lastAccess = lastModified;
+        }
+    }
+
+    /**
+     * Delete every file of an entry, unless the entry is in use.
+     *
+     * @param incomplete whether to only delete the entry if it is incomplete
+     * @return {@code true} if the entry was deleted
+     */
+    private boolean deleteEntry(String hash, boolean incomplete) throws IOException {
+        try (var lock = tryLock(hash)) {
+            if (lock == null) {
+                // In use by another thread or process
+                return false;
+            }
+
+            var archive = directory.resolve(hash + ".zip");
+            var metadataFile = directory.resolve(hash + ".json");
+            if (incomplete && Files.exists(archive) && Files.exists(metadataFile)) {
+                // Completed by another thread or process since the directory was listed
+                return false;
+            }
+
+            Files.deleteIfExists(metadataFile);
+            deleteArchive(archive);
+            log.info("Evicted {} cached pack {}", incomplete ? "incomplete" : "least recently used", archive);
+            return true;
+        }
+    }
+
+    private static boolean isHash(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void deleteArchive(Path archive) throws IOException {
+        Files.deleteIfExists(archive);
+        // Written by ChunkedPack.writeIndex() when the cached pack is served in chunks
+        Files.deleteIfExists(ChunkedPack.indexPathOf(archive));
+    }
+
+    private EntryLock lock(String hash) throws IOException {
+        var lockFile = lockFileOf(hash);
+        var processLock = PROCESS_LOCKS.computeIfAbsent(lockFile, path -> new ReentrantLock());
+        processLock.lock();
+        try {
+            var channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new EntryLock(processLock, channel, channel.lock());
+        } catch (IOException | RuntimeException e) {
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    private EntryLock tryLock(String hash) throws IOException {
+        var lockFile = lockFileOf(hash);
+        var processLock = PROCESS_LOCKS.computeIfAbsent(lockFile, path -> new ReentrantLock());
+        if (!processLock.tryLock()) {
+            return null;
+        }
+
+        try {
+            var channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            var fileLock = channel.tryLock();
+            if (fileLock == null) {
+                channel.close();
+                processLock.unlock();
+                return null;
+            }
+            return new EntryLock(processLock, channel, fileLock);
+        } catch (IOException | RuntimeException e) {
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Entries share 256 lock files, picked by the first byte of their hash.
+     * A lock file per entry would never be deleted safely: another process may be waiting
+     * on the file, and would hold a lock on a deleted file while a third one creates a new file.
+     */
+    private Path lockFileOf(String hash) {
+        return directory.resolve(hash.substring(0, 2) + ".lock");
+    }
+
+    private static String hashInput(Path inputPath, String key, EncryptOptions options) throws IOException {
+        var digest = Checksums.sha256();
+        try (var input = Files.newInputStream(inputPath)) {
+            Checksums.update(digest, input);
+        }
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        for (var transformer : options.getTransformers()) {
+            digest.update(transformer.getCacheId().getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) (options.isDeduplicate() ? 1 : 0));
+        return Checksums.hex(digest);
+    }
+
+    /**
+     * An encrypted pack stored in the cache.
+     *
+     * @param path      the encrypted archive. It may be evicted later, so copy it or use it right away
+     * @param key       the pack key
+     * @param contentId the content id (uuid) of the pack
+     * @param size      the size of the archive in bytes
+     * @param sha256    the SHA-256 checksum of the archive
+     */
+    public record CachedPack(Path path, String key, String contentId, long size, String sha256) {}
+
+    // The key is not stored next to the archive it unlocks, a hit needs it anyway as it is part of the hash
+    private record Metadata(String contentId, long size, String sha256) {}
+
+    private static final class Entry {
+        private boolean archive;
+        private boolean metadata;
+        private long size;
+        private FileTime lastAccess;
+
+        // Only complete entries can be loaded, the others are left behind by a process that died
+        private boolean isComplete() {
+            return archive && metadata;
+        }
+    }
+
+    private record EntryLock(ReentrantLock processLock, FileChannel channel, FileLock fileLock) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            try {
+                fileLock.release();
+                channel.close();
+            } finally {
+                processLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.allaymc.encryptmypack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Find files with identical content in a pack, typically the same texture in several sub packs,
+ * so that they are encrypted only once and share the same entry key.
+ * <p>
+ * Candidates are grouped by the size and crc-32 stored in the zip central directory, which costs
+ * no extra read. The content of the first file of a group is kept in memory, together with its
+ * ciphertext, until the last file of the group is visited; every match is confirmed by comparing
+ * the content byte for byte.
+ *
+ * @author daoge_cmd
+ */
+final class EntryDeduplicator {
+
+    private static final int MAX_ENTRY_SIZE = 16 * 1024 * 1024;
+    private static final long MAX_CACHED_BYTES = 256L * 1024 * 1024;
+
+    // Number of files of each group that have not been visited yet
+    private final Map<Fingerprint, Integer> remaining = new HashMap<>();
+    private final Map<Fingerprint, List<EncryptedContent>> cache = new HashMap<>();
+    private long cachedBytes;
+
+    /**
+     * Index the files of a pack.
+     *
+     * @param zip       the pack
+     * @param encrypted filter for the entries that will be encrypted
+     */
+    EntryDeduplicator(ZipFile zip, Predicate<ZipEntry> encrypted) {
+        zip.stream()
+                .filter(encrypted)
+                .filter(entry -> entry.getSize() > 0 && entry.getSize() <= MAX_ENTRY_SIZE && entry.getCrc() != -1)
+                .forEach(entry -> remaining.merge(fingerprintOf(entry), 1, Integer::sum));
+        remaining.values().removeIf(count -> count < 2);
+    }
+
+    /**
+     * @return {@code true} if other files in the pack may have the same content as this entry
+     */
+    boolean isCandidate(ZipEntry entry) {
+        return remaining.containsKey(fingerprintOf(entry));
+    }
+
+    /**
+     * Mark a candidate as visited and look for an already encrypted file with the same content.
+     *
+     * @param entry       the candidate
+     * @param content     the content of the candidate
+     * @param transformer the transformer applied to the candidate, may be {@code null}
+     * @return the encrypted file with the same content, or {@code null} if there is none yet
+     */
+    EncryptedContent find(ZipEntry entry, byte[] content, FileTransformer transformer) {
+        var fingerprint = fingerprintOf(entry);
+        EncryptedContent match = null;
+        for (var encrypted : cache.getOrDefault(fingerprint, List.of())) {
+            if (encrypted.transformer() == transformer && Arrays.equals(encrypted.content(), content)) {
+                match = encrypted;
+                break;
+            }
+        }
+
+        if (remaining.merge(fingerprint, -1, Integer::sum) <= 0) {
+            // Last file of the group, release the memory
+            remaining.remove(fingerprint);
+            var removed = cache.remove(fingerprint);
+            if (removed != null) {
+                for (var encrypted : removed) {
+                    cachedBytes -= encrypted.content().length + encrypted.ciphertext().length;
+                }
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Remember an encrypted candidate for the files of its group that have not been visited yet.
+     * Nothing is kept if it is the last file of its group, or if the memory limit is reached.
+     */
+    void put(ZipEntry entry, byte[] content, byte[] ciphertext, String key, FileTransformer transformer) {
+        var fingerprint = fingerprintOf(entry);
+        var size = (long) content.length + ciphertext.length;
+        if (!remaining.containsKey(fingerprint) || cachedBytes + size > MAX_CACHED_BYTES) {
+            return;
+        }
+
+        cache.computeIfAbsent(fingerprint, ignored -> new ArrayList<>()).add(new EncryptedContent(content, ciphertext, key, transformer));
+        cachedBytes += size;
+    }
+
+    private static Fingerprint fingerprintOf(ZipEntry entry) {
+        return new Fingerprint(entry.getSize(), entry.getCrc());
+    }
+
+    private record Fingerprint(long size, long crc) {}
+
+    /**
+     * @param content     the original content of the file
+     * @param ciphertext  the encrypted content written to the output
+     * @param key         the entry key used to encrypt the content
+     * @param transformer the transformer applied before encryption, may be {@code null}
+     */
+    record EncryptedContent(byte[] content, byte[] ciphertext, String key, FileTransformer transformer) {}
+}
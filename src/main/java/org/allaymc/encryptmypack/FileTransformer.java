@@ -0,0 +1,42 @@
+package org.allaymc.encryptmypack;
+
+import java.io.IOException;
+
+/**
+ * A transform applied to a file before it is encrypted, for example to remove bytes that
+ * the client does not need. Transforms must be lossless for the game.
+ *
+ * @author daoge_cmd
+ */
+public interface FileTransformer {
+
+    /**
+     * Check if this transformer should be applied to the given file.
+     *
+     * @param path the path of the file in the pack
+     * @return {@code true} if the file should be transformed
+     */
+    boolean accepts(String path);
+
+    /**
+     * Transform the given file. If the transformer cannot make the file smaller, it
+     * should return the given bytes.
+     *
+     * @param path  the path of the file in the pack
+     * @param bytes the content of the file, must not be modified by the transformer
+     * @return the transformed content
+     * @throws IOException if the file cannot be parsed, the original content will be used
+     */
+    byte[] transform(String path, byte[] bytes) throws IOException;
+
+    /**
+     * Identify the output of this transformer in {@link EncryptedPackCache}: packs encrypted with
+     * transformers of different ids are cached separately. Transformers whose output depends on
+     * their configuration must include it in the id.
+     *
+     * @return the class name by default
+     */
+    default String getCacheId() {
+        return getClass().getName();
+    }
+}
@@ -1,5 +1,6 @@
 package org.allaymc.encryptmypack;
 
+import com.formdev.flatlaf.themes.FlatMacDarkLaf;
 import jnafilechooser.api.JnaFileChooser;
 
 import javax.swing.*;
@@ -19,8 +20,10 @@ import java.nio.file.Paths;
  */
 public final class GUI {
     private JPanel rootPanel;
+    private JSplitPane splitPane;
     private JScrollPane scrollPane;
     private ConsolePanel consolePanel;
+    private JobQueuePanel jobQueuePanel;
     private JTextField keyTextField;
     private JButton generateKeyButton;
     private JTextField filePathTextField;
@@ -34,7 +37,7 @@ public final class GUI {
         JFrame frame = new JFrame("EncryptMyPack by @daoge_cmd");
         frame.setContentPane(rootPanel);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setSize(700, 700);
+        frame.setSize(700, 850);
         frame.setLocationRelativeTo(null);
         keyTextField.setText(PackEncryptor.generateRandomKey());
 
@@ -104,7 +107,16 @@ public final class GUI {
         frame.setVisible(true);
     }
 
-    private static Path appendToFileName(Path path, String suffix) {
+    /**
+     * Set up the look and feel and show the window. All Swing, FlatLaf and JNA classes are only
+     * loaded from here, so headless runs never pay for them.
+     */
+    public static void launch() {
+        FlatMacDarkLaf.setup();
+        SwingUtilities.invokeLater(GUI::new);
+    }
+
+    static Path appendToFileName(Path path, String suffix) {
         Path parent = path.getParent();
         String fileName = path.getFileName().toString();
 
@@ -166,6 +178,8 @@ public final class GUI {
         consolePanel = new ConsolePanel();
         consolePanel.setBackground(new Color(0x131313));
         consolePanel.setEditable(false);
+        // Packs in the queue use the key in the key text field unless they get their own key
+        jobQueuePanel = new JobQueuePanel(() -> keyTextField.getText());
     }
 
     /**
@@ -179,8 +193,10 @@ public final class GUI {
         createUIComponents();
         rootPanel = new JPanel();
         rootPanel.setLayout(new GridBagLayout());
-        rootPanel.setPreferredSize(new Dimension(700, 700));
-        scrollPane = new JScrollPane();
+        rootPanel.setPreferredSize(new Dimension(700, 850));
+        splitPane = new JSplitPane();
+        splitPane.setOrientation(0);
+        splitPane.setResizeWeight(0.6);
         GridBagConstraints gbc;
         gbc = new GridBagConstraints();
         gbc.gridx = 0;
@@ -188,8 +204,11 @@ public final class GUI {
         gbc.weightx = 1.0;
         gbc.weighty = 1.0;
         gbc.fill = GridBagConstraints.BOTH;
-        rootPanel.add(scrollPane, gbc);
+        rootPanel.add(splitPane, gbc);
+        scrollPane = new JScrollPane();
+        splitPane.setLeftComponent(scrollPane);
         scrollPane.setViewportView(consolePanel);
+        splitPane.setRightComponent(jobQueuePanel);
         final JPanel panel1 = new JPanel();
         panel1.setLayout(new GridBagLayout());
         gbc = new GridBagConstraints();
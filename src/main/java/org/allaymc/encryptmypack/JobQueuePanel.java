@@ -0,0 +1,440 @@
+package org.allaymc.encryptmypack;
+
+import jnafilechooser.api.JnaFileChooser;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableCellRenderer;
+import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A queue of packs that are encrypted or decrypted concurrently. Packs and folders of packs
+ * can be dropped onto the table.
+ *
+ * @author daoge_cmd
+ */
+@Slf4j
+public class JobQueuePanel extends JPanel {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final int WORKER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final transient Supplier<String> sharedKeySupplier;
+    private final transient ExecutorService workers;
+    private final JobTableModel model = new JobTableModel();
+    private final JCheckBox randomKeyCheckBox = new JCheckBox("Random key per pack");
+
+    /**
+     * @param sharedKeySupplier supply the key used by all packs when they do not get their own key
+     */
+    public JobQueuePanel(Supplier<String> sharedKeySupplier) {
+        super(new BorderLayout());
+        this.sharedKeySupplier = sharedKeySupplier;
+        var threadId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+            var thread = new Thread(runnable, "Job Worker #" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        var table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(JobTableModel.PROGRESS_COLUMN).setCellRenderer(new ProgressRenderer());
+        table.getColumnModel().getColumn(JobTableModel.PACK_COLUMN).setPreferredWidth(240);
+        var transferHandler = new FileDropHandler();
+        table.setTransferHandler(transferHandler);
+        var scrollPane = new JScrollPane(table);
+        scrollPane.setTransferHandler(transferHandler);
+        scrollPane.setBorder(BorderFactory.createTitledBorder("Job queue (drop .zip/.mcpack files or folders here)"));
+        add(scrollPane, BorderLayout.CENTER);
+
+        var encryptAllButton = new JButton("Encrypt all");
+        encryptAllButton.addActionListener(e -> startPendingJobs(Operation.ENCRYPT));
+        var decryptAllButton = new JButton("Decrypt all");
+        decryptAllButton.addActionListener(e -> startPendingJobs(Operation.DECRYPT));
+        var importKeysButton = new JButton("Import keys");
+        importKeysButton.addActionListener(e -> importKeys());
+        var exportKeysButton = new JButton("Export keys");
+        exportKeysButton.addActionListener(e -> exportKeys());
+        var clearButton = new JButton("Clear finished");
+        clearButton.addActionListener(e -> model.removeFinishedJobs());
+
+        var buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(randomKeyCheckBox);
+        buttons.add(encryptAllButton);
+        buttons.add(decryptAllButton);
+        buttons.add(importKeysButton);
+        buttons.add(exportKeysButton);
+        buttons.add(clearButton);
+        add(buttons, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Add a pack, or all packs in a folder, to the queue. Packs that are already in the queue, and
+     * packs written by the queue, are skipped. When walking a folder, packs named like an output
+     * ({@code *_encrypted.zip}, {@code *_decrypted.zip}) are skipped too, as they are usually the
+     * result of a previous run.
+     *
+     * @param path the pack or the folder
+     */
+    public void addPath(Path path) {
+        path = path.toAbsolutePath().normalize();
+        if (!Files.isDirectory(path)) {
+            if (isPack(path)) {
+                addJob(path);
+            }
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(path)) {
+            files.filter(Files::isRegularFile)
+                    .filter(JobQueuePanel::isPack)
+                    .filter(file -> !isOutput(file))
+                    .sorted()
+                    .forEach(this::addJob);
+        } catch (IOException e) {
+            log.error("Failed to list packs in folder {}", path, e);
+        }
+    }
+
+    private void addJob(Path input) {
+        for (var job : model.getJobs()) {
+            if (input.equals(job.output)) {
+                log.warn("Skipped {}, it is written by the job of {}", input, job.input);
+                return;
+            }
+            if (input.equals(job.input) && !job.isFinished()) {
+                log.warn("Skipped {}, it is already in the queue", input);
+                return;
+            }
+        }
+        model.addJob(new Job(input));
+    }
+
+    private static boolean isPack(Path path) {
+        var name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".mcpack");
+    }
+
+    private static boolean isOutput(Path path) {
+        var name = path.getFileName().toString();
+        var dotIndex = name.lastIndexOf('.');
+        var baseName = dotIndex == -1 ? name : name.substring(0, dotIndex);
+        return baseName.endsWith("_encrypted") || baseName.endsWith("_decrypted");
+    }
+
+    private void startPendingJobs(Operation operation) {
+        var sharedKey = sharedKeySupplier.get();
+        var randomKey = operation == Operation.ENCRYPT && randomKeyCheckBox.isSelected();
+        // A job must not overwrite a pack that another job is still reading
+        var activeInputs = new HashSet<Path>();
+        for (var job : model.getJobs()) {
+            if (!job.isFinished()) {
+                activeInputs.add(job.input);
+            }
+        }
+        for (var job : model.getJobs()) {
+            if (job.status != Status.PENDING) {
+                continue;
+            }
+
+            var output = GUI.appendToFileName(job.input, operation == Operation.ENCRYPT ? "_encrypted" : "_decrypted");
+            if (activeInputs.contains(output)) {
+                log.warn("Skipped {}, its output {} is another pack of the queue", job.input, output);
+                continue;
+            }
+
+            job.operation = operation;
+            if (job.key == null) {
+                // Not set in the table or imported from a key file
+                job.key = randomKey ? PackEncryptor.generateRandomKey() : sharedKey;
+            }
+            job.output = output;
+            job.status = Status.QUEUED;
+            model.jobUpdated(job);
+            workers.execute(() -> runJob(job));
+        }
+    }
+
+    private void runJob(Job job) {
+        job.status = Status.RUNNING;
+        job.startNanos = System.nanoTime();
+        model.jobUpdated(job);
+
+        ProgressListener progressListener = (processed, total) -> {
+            var percent = total == 0 ? 100 : (int) (processed * 100 / total);
+            job.processedBytes = processed;
+            // Only repaint when the displayed percentage changes
+            if (percent != job.percent) {
+                job.percent = percent;
+                model.jobUpdated(job);
+            }
+        };
+        var success = job.operation == Operation.ENCRYPT
+                ? PackEncryptor.encrypt(job.input, job.output, job.key, EncryptOptions.builder().progressListener(progressListener).build())
+                : PackEncryptor.decrypt(job.input, job.output, job.key, progressListener);
+
+        job.endNanos = System.nanoTime();
+        job.status = success ? Status.DONE : Status.FAILED;
+        model.jobUpdated(job);
+    }
+
+    private void importKeys() {
+        var fc = new JnaFileChooser();
+        fc.addFilter("CSV Files", "csv");
+        if (!fc.showOpenDialog(SwingUtilities.getWindowAncestor(this))) {
+            return;
+        }
+
+        File file = fc.getSelectedFile();
+        Map<Path, String> keys;
+        try {
+            keys = KeyFile.read(file.toPath());
+        } catch (IOException e) {
+            log.error("Failed to import keys from {}", file, e);
+            return;
+        }
+
+        // Queue the packs of the key file, then give every pending job of these packs its key
+        for (var pack : keys.keySet()) {
+            if (model.getJobs().stream().noneMatch(job -> job.input.equals(pack) && job.status == Status.PENDING)) {
+                addPath(pack);
+            }
+        }
+        var imported = 0;
+        for (var job : model.getJobs()) {
+            var key = keys.get(job.input);
+            if (key != null && job.status == Status.PENDING) {
+                job.key = key;
+                model.jobUpdated(job);
+                imported++;
+            }
+        }
+        log.info("Imported {} keys from {}", imported, file);
+    }
+
+    private void exportKeys() {
+        var keys = new LinkedHashMap<Path, String>();
+        for (var job : model.getJobs()) {
+            if (job.status == Status.DONE && job.operation == Operation.ENCRYPT) {
+                keys.put(job.output, job.key);
+            }
+        }
+        if (keys.isEmpty()) {
+            log.warn("No encrypted pack to export keys for");
+            return;
+        }
+
+        var fc = new JnaFileChooser();
+        fc.addFilter("CSV Files", "csv");
+        fc.setDefaultFileName("keys.csv");
+        if (!fc.showSaveDialog(SwingUtilities.getWindowAncestor(this))) {
+            return;
+        }
+
+        File file = fc.getSelectedFile();
+        try {
+            KeyFile.write(file.toPath(), keys);
+            log.info("Exported {} keys to {}", keys.size(), file);
+        } catch (IOException e) {
+            log.error("Failed to export keys to {}", file, e);
+        }
+    }
+
+    private enum Operation {
+        ENCRYPT, DECRYPT
+    }
+
+    private enum Status {
+        PENDING, QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private static final class Job {
+        private final Path input;
+        private Operation operation;
+        private Path output;
+        private String key;
+        // Written by the worker thread and read by the event dispatch thread
+        private volatile Status status = Status.PENDING;
+        private volatile long processedBytes;
+        private volatile int percent;
+        private volatile long startNanos;
+        private volatile long endNanos;
+
+        private Job(Path input) {
+            this.input = input;
+        }
+
+        private boolean isFinished() {
+            return status == Status.DONE || status == Status.FAILED;
+        }
+
+        private String throughput() {
+            if (startNanos == 0) {
+                return "";
+            }
+
+            var elapsed = (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+            var bytes = processedBytes;
+            if (elapsed <= 0 || bytes == 0) {
+                return "";
+            }
+            return String.format("%.1f MB/s", bytes / 1_000_000.0 / (elapsed / 1_000_000_000.0));
+        }
+    }
+
+    private static final class JobTableModel extends AbstractTableModel {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private static final int PACK_COLUMN = 0;
+        private static final int PROGRESS_COLUMN = 2;
+        private static final int KEY_COLUMN = 4;
+        private static final String[] COLUMNS = {"Pack", "Status", "Progress", "Throughput", "Key"};
+
+        private final List<Job> jobs = new ArrayList<>();
+
+        private List<Job> getJobs() {
+            return jobs;
+        }
+
+        private void addJob(Job job) {
+            jobs.add(job);
+            fireTableRowsInserted(jobs.size() - 1, jobs.size() - 1);
+        }
+
+        private void removeFinishedJobs() {
+            jobs.removeIf(Job::isFinished);
+            fireTableDataChanged();
+        }
+
+        /**
+         * Repaint the row of the given job. Can be called from any thread.
+         */
+        private void jobUpdated(Job job) {
+            SwingUtilities.invokeLater(() -> {
+                var row = jobs.indexOf(job);
+                if (row != -1) {
+                    fireTableRowsUpdated(row, row);
+                }
+            });
+        }
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            var job = jobs.get(row);
+            return switch (column) {
+                case PACK_COLUMN -> job.input.getFileName().toString();
+                case 1 -> job.operation == null ? job.status.name() : job.operation.name() + " " + job.status.name();
+                case PROGRESS_COLUMN -> job.percent;
+                case 3 -> job.throughput();
+                default -> job.key == null ? "" : job.key;
+            };
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            // The key of a pack can be set until its job is started
+            return column == KEY_COLUMN && jobs.get(row).status == Status.PENDING;
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            var job = jobs.get(row);
+            if (column != KEY_COLUMN || job.status != Status.PENDING) {
+                return;
+            }
+
+            var key = value.toString().trim();
+            if (!key.isEmpty() && key.length() != PackEncryptor.KEY_LENGTH) {
+                log.warn("Key length must be {}: {}", PackEncryptor.KEY_LENGTH, key);
+                return;
+            }
+            // An empty key falls back to the key field or a random key
+            job.key = key.isEmpty() ? null : key;
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    private static final class ProgressRenderer extends JProgressBar implements TableCellRenderer {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private ProgressRenderer() {
+            super(0, 100);
+            setStringPainted(true);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            setValue((Integer) value);
+            return this;
+        }
+    }
+
+    private final class FileDropHandler extends TransferHandler {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean canImport(TransferSupport support) {
+            return support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean importData(TransferSupport support) {
+            if (!canImport(support)) {
+                return false;
+            }
+
+            try {
+                var files = (List<File>) support.getTransferable().getTransferData(DataFlavor.javaFileListFlavor);
+                for (var file : files) {
+                    addPath(file.toPath());
+                }
+                return true;
+            } catch (Exception e) {
+                log.error("Failed to import dropped files", e);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.allaymc.encryptmypack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Remove whitespace and comments from json files.
+ * <p>
+ * Bedrock accepts comments, trailing commas and other lenient syntax in json files, and a json
+ * parser would change the meaning of some of them (a lenient reader turns {@code [1, 2, ]} into
+ * {@code [1, 2, null]}). So the file is not parsed at all: the bytes are split into strings,
+ * comments, whitespace and the rest, and everything but whitespace and comments is copied
+ * unchanged. Only ascii bytes delimit tokens, so the UTF-8 content is never decoded.
+ *
+ * @author daoge_cmd
+ */
+public final class JsonMinifier implements FileTransformer {
+
+    @Override
+    public boolean accepts(String path) {
+        return path.endsWith(".json");
+    }
+
+    @Override
+    public byte[] transform(String path, byte[] bytes) throws IOException {
+        var output = new ByteArrayOutputStream(bytes.length);
+        // Whether the last copied byte ends a bare token (number, literal, unquoted string),
+        // and whether whitespace or a comment was removed since then
+        var afterBareToken = false;
+        var separated = false;
+        var i = 0;
+        while (i < bytes.length) {
+            var b = bytes[i];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                separated = true;
+                i++;
+            } else if (b == '/' && i + 1 < bytes.length && bytes[i + 1] == '/') {
+                separated = true;
+                i = skipLineComment(bytes, i + 2);
+            } else if (b == '/' && i + 1 < bytes.length && bytes[i + 1] == '*') {
+                separated = true;
+                i = skipBlockComment(bytes, i + 2);
+            } else if (b == '"' || b == '\'') {
+                var end = stringEnd(bytes, i);
+                output.write(bytes, i, end - i);
+                afterBareToken = false;
+                separated = false;
+                i = end;
+            } else if (isStructural(b)) {
+                output.write(b);
+                afterBareToken = false;
+                separated = false;
+                i++;
+            } else {
+                if (afterBareToken && separated) {
+                    // Two bare tokens must stay apart
+                    output.write(' ');
+                }
+                var end = bareTokenEnd(bytes, i);
+                output.write(bytes, i, end - i);
+                afterBareToken = true;
+                separated = false;
+                i = end;
+            }
+        }
+
+        return output.size() < bytes.length ? output.toByteArray() : bytes;
+    }
+
+    private static boolean isStructural(byte b) {
+        return b == '{' || b == '}' || b == '[' || b == ']' || b == ':' || b == ',';
+    }
+
+    private static int skipLineComment(byte[] bytes, int i) {
+        while (i < bytes.length && bytes[i] != '\n' && bytes[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipBlockComment(byte[] bytes, int i) throws IOException {
+        for (; i + 1 < bytes.length; i++) {
+            if (bytes[i] == '*' && bytes[i + 1] == '/') {
+                return i + 2;
+            }
+        }
+        throw new IOException("Unterminated comment");
+    }
+
+    /**
+     * @return the index after the closing quote of the string starting at the given index
+     */
+    private static int stringEnd(byte[] bytes, int start) throws IOException {
+        var quote = bytes[start];
+        for (int i = start + 1; i < bytes.length; i++) {
+            if (bytes[i] == '\\') {
+                // Skip the escaped character, which may be a quote
+                i++;
+            } else if (bytes[i] == quote) {
+                return i + 1;
+            }
+        }
+        throw new IOException("Unterminated string");
+    }
+
+    private static int bareTokenEnd(byte[] bytes, int start) {
+        var i = start;
+        while (i < bytes.length) {
+            var b = bytes[i];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '"' || b == '\'' || isStructural(b)) {
+                break;
+            }
+            if (b == '/' && i + 1 < bytes.length && (bytes[i + 1] == '/' || bytes[i + 1] == '*')) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,115 @@
+package org.allaymc.encryptmypack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read and write the keys of many packs as a csv file with a {@code file,key} header, the format of
+ * the job queue's key export. Fields are quoted as in RFC 4180, so paths may contain commas and quotes.
+ *
+ * @author daoge_cmd
+ */
+final class KeyFile {
+
+    private static final String HEADER = "file,key";
+
+    private KeyFile() {
+    }
+
+    /**
+     * @param keys the key of every pack, by the path of the pack
+     */
+    static void write(Path file, Map<Path, String> keys) throws IOException {
+        var builder = new StringBuilder(HEADER).append("\r\n");
+        for (var entry : keys.entrySet()) {
+            builder.append(quote(entry.getKey().toAbsolutePath().toString())).append(',').append(quote(entry.getValue())).append("\r\n");
+        }
+        Files.writeString(file, builder, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the key of every pack, by the absolute path of the pack. Relative paths are resolved
+     * against the folder of the csv file
+     * @throws IOException if the file cannot be read or is not a key file
+     */
+    static Map<Path, String> read(Path file) throws IOException {
+        var text = Files.readString(file, StandardCharsets.UTF_8);
+        // Spreadsheet applications may add a byte order mark
+        var rows = parse(text.startsWith("\uFEFF") ? text.substring(1) : text);
+        if (rows.isEmpty() || !String.join(",", rows.get(0)).equalsIgnoreCase(HEADER)) {
+            throw new IOException("Missing '" + HEADER + "' header in " + file);
+        }
+
+        var directory = file.toAbsolutePath().getParent();
+        var keys = new LinkedHashMap<Path, String>();
+        for (int i = 1; i < rows.size(); i++) {
+            var row = rows.get(i);
+            if (row.size() == 1 && row.get(0).isBlank()) {
+                continue;
+            }
+            if (row.size() != 2) {
+                throw new IOException("Expected 2 fields on row " + (i + 1) + " of " + file + ", found " + row.size());
+            }
+            keys.put(directory.resolve(row.get(0)).normalize(), row.get(1));
+        }
+        return keys;
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') == -1 && field.indexOf('"') == -1 && field.indexOf('\n') == -1 && field.indexOf('\r') == -1) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    private static List<List<String>> parse(String text) throws IOException {
+        var rows = new ArrayList<List<String>>();
+        var row = new ArrayList<String>();
+        var field = new StringBuilder();
+        var quoted = false;
+        var i = 0;
+        while (i < text.length()) {
+            var c = text.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < text.length() && text.charAt(i) == '"') {
+                    // An escaped quote
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && i < text.length() && text.charAt(i) == '\n') {
+                    i++;
+                }
+                row.add(field.toString());
+                field.setLength(0);
+                rows.add(row);
+                row = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IOException("Unterminated quoted field");
+        }
+        if (!field.isEmpty() || !row.isEmpty()) {
+            row.add(field.toString());
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -2,29 +2,30 @@ package org.allaymc.encryptmypack;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.stream.JsonReader;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomStringUtils;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -41,130 +42,167 @@ public final class PackEncryptor {
             .serializeNulls()
             .setLenient()
             .create();
-    private static final int KEY_LENGTH = 32;
+    static final int KEY_LENGTH = 32;
     private static final byte[] VERSION = new byte[]{(byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00};
     private static final byte[] MAGIC = new byte[]{(byte) 0xFC, (byte) 0xB9, (byte) 0xCF, (byte) 0x9B};
-    private static final List<String> EXCLUDED_FILES = List.of("manifest.json", "pack_icon.png", "bug_pack_icon.png");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Encrypted data looks random and cannot be compressed, deflating it only burns cpu (about as much as
+    // the encryption itself) and makes the output a little bigger. Stored deflate blocks are still a valid
+    // DEFLATED entry for every zip reader, and need no crc-32 up front like STORED entries do
+    private static final int ENCRYPTED_DATA_LEVEL = Deflater.NO_COMPRESSION;
+    private static final Set<String> EXCLUDED_FILES = Set.of("manifest.json", "pack_icon.png", "bug_pack_icon.png");
 
     public static String generateRandomKey() {
         return RandomStringUtils.randomAlphanumeric(KEY_LENGTH);
     }
 
-    public static void encrypt(Path inputPath, Path outputPath, String key) {
+    public static boolean encrypt(Path inputPath, Path outputPath, String key) {
+        return encrypt(inputPath, outputPath, key, EncryptOptions.DEFAULT);
+    }
+
+    public static boolean encrypt(Path inputPath, Path outputPath, String key, EncryptOptions options) {
         if (!checkArgs(inputPath, outputPath, key)) {
-            return;
+            return false;
         }
 
         try (var inputZip = new ZipFile(inputPath.toString())) {
-            encrypt0(inputZip, outputPath, key);
+            encrypt0(inputZip, outputPath, key, options);
+            return true;
         } catch (Exception e) {
             log.error("Failed to encrypt pack", e);
+            return false;
         }
     }
 
-    public static void decrypt(Path inputPath, Path outputPath, String key) {
+    public static boolean decrypt(Path inputPath, Path outputPath, String key) {
+        return decrypt(inputPath, outputPath, key, null);
+    }
+
+    /**
+     * @param progressListener notified after each decrypted entry, may be {@code null}
+     */
+    public static boolean decrypt(Path inputPath, Path outputPath, String key, ProgressListener progressListener) {
         if (!checkArgs(inputPath, outputPath, key)) {
-            return;
+            return false;
         }
 
         try (var inputZip = new ZipFile(inputPath.toString())) {
-            decrypt0(inputZip, outputPath, key);
+            decrypt0(inputZip, outputPath, key, progressListener);
+            return true;
         } catch (Exception e) {
             log.error("Failed to decrypt pack", e);
+            return false;
         }
     }
 
     @SneakyThrows
-    private static void encrypt0(ZipFile inputZip, Path outputPath, String key) {
+    private static void encrypt0(ZipFile inputZip, Path outputPath, String key, EncryptOptions options) {
         // Find content id
         var uuid = findPackUUID(inputZip);
         log.info("ContentId: {}", uuid);
 
         var contentEntries = new ArrayList<ContentEntry>();
-
-        // Delete old output
-        Files.deleteIfExists(outputPath);
-        var outputStream = new ZipOutputStream(new FileOutputStream(outputPath.toFile()), StandardCharsets.UTF_8);
-        // Encrypt files
-        inputZip.stream().forEach(zipEntry -> {
-            if (zipEntry.isDirectory()) {
-                createDirectoryRoot(zipEntry, outputStream);
-                if (isSubPackRoot(zipEntry)) {
-                    // Handle sub pack
-                    encryptSubPack(inputZip, outputStream, zipEntry.getName(), key, uuid);
+        // Sub pack path -> entries of its contents.json, filled in the same pass as the root pack
+        var subPackContentEntries = new LinkedHashMap<String, List<ContentEntry>>();
+        var report = new EncryptReport();
+        // The entries are encrypted on this thread, so its own counters only see this run
+        var poolHits = BufferPool.DEFAULT.getThreadHits();
+        var poolMisses = BufferPool.DEFAULT.getThreadMisses();
+
+        var progressListener = options.getProgressListener();
+        var totalBytes = progressListener != null ? inputZip.stream().mapToLong(PackEncryptor::sizeOf).sum() : 0;
+        var processedBytes = new AtomicLong();
+        var deduplicator = options.isDeduplicate() ? new EntryDeduplicator(inputZip, PackEncryptor::isEncryptedFile) : null;
+        writeOutput(outputPath, outputStream -> {
+            // Encrypt files
+            inputZip.stream().forEach(zipEntry -> {
+                encryptEntry(inputZip, outputStream, zipEntry, contentEntries, subPackContentEntries, options, report, deduplicator);
+                if (progressListener != null) {
+                    progressListener.onProgress(processedBytes.addAndGet(sizeOf(zipEntry)), totalBytes);
                 }
+            });
 
-                return;
-            }
-            // Sub pack files will be handled in encryptSubPack()
-            if (isSubPackFile(zipEntry)) {
-                return;
+            generateContentsJson("contents.json", outputStream, uuid, key, contentEntries);
+            for (var subPack : subPackContentEntries.entrySet()) {
+                generateContentsJson(subPack.getKey() + "contents.json", outputStream, uuid, key, subPack.getValue());
             }
-
-            String entryKey = null;
-            // Check if file is excluded
-            if (EXCLUDED_FILES.contains(zipEntry.getName())) {
-                encryptExcludedFile(inputZip, outputStream, zipEntry);
-                // Excluded file does not have entry key
-            } else {
-                // Encrypt file
-                entryKey = encryptFile(inputZip, outputStream, zipEntry);
-            }
-            log.info("File: {}, entryKey: {}", zipEntry.getName(), entryKey);
-            contentEntries.add(new ContentEntry(zipEntry.getName(), entryKey));
         });
-
-        generateContentsJson("contents.json", outputStream, uuid, key, contentEntries);
-        outputStream.close();
+        report.recordBufferPool(BufferPool.DEFAULT.getThreadHits() - poolHits, BufferPool.DEFAULT.getThreadMisses() - poolMisses);
+        report.log();
+        if (options.getReportListener() != null) {
+            options.getReportListener().accept(report);
+        }
         log.info("Encryption finish. Key: {}. Output file: {}", key, outputPath);
     }
 
+    private static void encryptEntry(ZipFile inputZip, ZipOutputStream outputStream, ZipEntry zipEntry, List<ContentEntry> contentEntries, Map<String, List<ContentEntry>> subPackContentEntries, EncryptOptions options, EncryptReport report, EntryDeduplicator deduplicator) {
+        if (zipEntry.isDirectory()) {
+            createDirectoryRoot(zipEntry, outputStream);
+            return;
+        }
+        if (isSubPackFile(zipEntry)) {
+            encryptSubPackFile(inputZip, outputStream, zipEntry, subPackContentEntries, options, report, deduplicator);
+            return;
+        }
+
+        String entryKey = null;
+        // Check if file is excluded
+        if (EXCLUDED_FILES.contains(zipEntry.getName())) {
+            encryptExcludedFile(inputZip, outputStream, zipEntry);
+            // Excluded file does not have entry key
+        } else {
+            // Encrypt file
+            entryKey = encryptFile(inputZip, outputStream, zipEntry, options, report, deduplicator);
+        }
+        log.info("File: {}, entryKey: {}", zipEntry.getName(), entryKey);
+        contentEntries.add(new ContentEntry(zipEntry.getName(), entryKey));
+    }
+
     @SneakyThrows
     private static void createDirectoryRoot(ZipEntry zipEntry, ZipOutputStream outputStream) {
         outputStream.putNextEntry(copyZipEntry(zipEntry));
         outputStream.closeEntry();
     }
 
-    @SneakyThrows
-    private static void encryptSubPack(ZipFile inputZip, ZipOutputStream zos, String subPackPath, String key, String contentId) {
-        log.info("Encrypting sub pack: {}", subPackPath);
-        var subPackContentEntries = new ArrayList<ContentEntry>();
-
-        // Encrypt files
-        inputZip.stream().forEach(zipEntry -> {
-            if (zipEntry.isDirectory() || !zipEntry.getName().startsWith(subPackPath)) {
-                return;
-            }
+    private static void encryptSubPackFile(ZipFile inputZip, ZipOutputStream zos, ZipEntry zipEntry, Map<String, List<ContentEntry>> subPackContentEntries, EncryptOptions options, EncryptReport report, EntryDeduplicator deduplicator) {
+        var subPackPath = getSubPackPath(zipEntry.getName());
+        if (subPackPath == null) {
+            // Files directly under subpacks/ do not belong to any sub pack
+            return;
+        }
 
-            String entryKey = encryptFile(inputZip, zos, zipEntry);
-            log.info("Sub pack file: {}, entryKey: {}", zipEntry.getName(), entryKey);
-            subPackContentEntries.add(new ContentEntry(zipEntry.getName().substring(subPackPath.length()), entryKey));
+        var entries = subPackContentEntries.computeIfAbsent(subPackPath, path -> {
+            log.info("Encrypting sub pack: {}", path);
+            return new ArrayList<>();
         });
-
-        generateContentsJson(subPackPath + "contents.json", zos, contentId, key, subPackContentEntries);
+        String entryKey = encryptFile(inputZip, zos, zipEntry, options, report, deduplicator);
+        log.info("Sub pack file: {}, entryKey: {}", zipEntry.getName(), entryKey);
+        entries.add(new ContentEntry(zipEntry.getName().substring(subPackPath.length()), entryKey));
     }
 
-    private static void generateContentsJson(String name, ZipOutputStream outputStream, String contentId, String key, ArrayList<ContentEntry> contentEntries) throws IOException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+    private static void generateContentsJson(String name, ZipOutputStream outputStream, String contentId, String key, List<ContentEntry> contentEntries) throws IOException {
+        outputStream.setLevel(ENCRYPTED_DATA_LEVEL);
         outputStream.putNextEntry(new ZipEntry(name));
-        try (var stream = new ByteArrayOutputStream()) {
-            stream.write(VERSION);
-            stream.write(MAGIC);
-            paddingTo(stream, 0x10);
+        var header = BufferPool.DEFAULT.acquire(0x100);
+        try {
+            header.put(VERSION);
+            header.put(MAGIC);
+            paddingTo(header, 0x10);
             var contentIdBytes = contentId.getBytes(StandardCharsets.UTF_8);
             // Write content id length
-            stream.write(contentIdBytes.length);
+            header.put((byte) contentIdBytes.length);
             // Write content id
-            stream.write(contentIdBytes);
-            // Init contents.json encryptor
-            var secretKey = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "AES");
-            var cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(key.substring(0, 16).getBytes(StandardCharsets.UTF_8)));
-            // Write contents.json
-            var contentJson = GSON.toJson(new Content(contentEntries));
-            paddingTo(stream, 0x100);
-            stream.write(cipher.doFinal(contentJson.getBytes(StandardCharsets.UTF_8)));
-            outputStream.write(stream.toByteArray());
+            header.put(contentIdBytes);
+            paddingTo(header, 0x100);
+            outputStream.write(header.array(), header.arrayOffset(), header.position());
+        } finally {
+            BufferPool.DEFAULT.release(header);
         }
+        // Write contents.json, the json is encrypted while it is being serialized
+        var cipherStream = CFB8Cipher.get().init(Cipher.ENCRYPT_MODE, key).wrap(outputStream);
+        var writer = GSON.newJsonWriter(new OutputStreamWriter(cipherStream, StandardCharsets.UTF_8));
+        GSON.toJson(new Content(contentEntries), Content.class, writer);
+        writer.flush();
         outputStream.closeEntry();
         log.info("Successfully create contents.json");
     }
@@ -172,137 +210,285 @@ public final class PackEncryptor {
     @SneakyThrows
     private static void encryptExcludedFile(ZipFile inputZip, ZipOutputStream outputStream, ZipEntry zipEntry) {
         log.info("Excluded file: {}, copy directly", zipEntry.getName());
+        outputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
         outputStream.putNextEntry(copyZipEntry(zipEntry));
-        outputStream.write(inputZip.getInputStream(zipEntry).readAllBytes());
+        try (var input = inputZip.getInputStream(zipEntry)) {
+            input.transferTo(outputStream);
+        }
         outputStream.closeEntry();
     }
 
     @SneakyThrows
-    private static String encryptFile(ZipFile inputZip, ZipOutputStream outputStream, ZipEntry zipEntry) {
-        byte[] bytes;
-        bytes = inputZip.getInputStream(zipEntry).readAllBytes();
-        // Init encryptor
-        var key = RandomStringUtils.randomAlphanumeric(KEY_LENGTH);
-        var secretKey = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "AES");
-        var cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(key.substring(0, 16).getBytes(StandardCharsets.UTF_8)));
-        // Encrypt the file
-        var encryptedBytes = cipher.doFinal(bytes);
-        // Write bytes
+    private static String encryptFile(ZipFile inputZip, ZipOutputStream outputStream, ZipEntry zipEntry, EncryptOptions options, EncryptReport report, EntryDeduplicator deduplicator) {
+        var transformer = options.findTransformer(zipEntry.getName());
+        var duplicateCandidate = deduplicator != null && deduplicator.isCandidate(zipEntry);
+        outputStream.setLevel(ENCRYPTED_DATA_LEVEL);
         outputStream.putNextEntry(copyZipEntry(zipEntry));
-        outputStream.write(encryptedBytes);
+        String key;
+        if (transformer != null || duplicateCandidate) {
+            byte[] bytes;
+            try (var input = inputZip.getInputStream(zipEntry)) {
+                bytes = input.readAllBytes();
+            }
+            key = encryptBytes(outputStream, zipEntry, bytes, transformer, report, duplicateCandidate ? deduplicator : null);
+        } else {
+            key = RandomStringUtils.randomAlphanumeric(KEY_LENGTH);
+            var cipher = CFB8Cipher.get().init(Cipher.ENCRYPT_MODE, key);
+            // Encrypt the file chunk by chunk, so memory usage does not depend on the file size
+            try (var input = inputZip.getInputStream(zipEntry)) {
+                var nanos = transfer(input, outputStream, cipher);
+                report.recordEncryption(zipEntry.getSize(), nanos);
+            }
+        }
         outputStream.closeEntry();
         return key;
     }
 
-    @SneakyThrows
-    private static void decrypt0(ZipFile inputZip, Path outputPath, String key) {
-        Content content = decryptContentsJson(inputZip, "contents.json", key);
-
-        // Delete old output
-        Files.deleteIfExists(outputPath);
-        var outputStream = new ZipOutputStream(new FileOutputStream(outputPath.toFile()));
-        // Decrypt files
-        for (var contentEntry : content.content) {
-            if (contentEntry.key == null) {
-                continue;
-            }
-
-            var entryPath = contentEntry.path;
-            var zipEntry = inputZip.getEntry(entryPath);
-            if (zipEntry == null) {
-                log.error("Zip entry not exists: {}", entryPath);
-                continue;
+    /**
+     * Encrypt a file which is already in memory and write it to the current entry.
+     *
+     * @param deduplicator the deduplicator if the file is a duplicate candidate, otherwise {@code null}
+     * @return the entry key
+     */
+    private static String encryptBytes(ZipOutputStream outputStream, ZipEntry zipEntry, byte[] bytes, FileTransformer transformer, EncryptReport report, EntryDeduplicator deduplicator) throws IOException {
+        byte[] content = null;
+        if (deduplicator != null) {
+            var duplicate = deduplicator.find(zipEntry, bytes, transformer);
+            if (duplicate != null) {
+                // Same content as a file encrypted before, reuse its ciphertext and key
+                outputStream.write(duplicate.ciphertext());
+                report.recordDuplicate(duplicate.ciphertext().length);
+                return duplicate.key();
             }
+            // The bytes are encrypted in place below
+            content = bytes.clone();
+        }
 
-            log.info("Decrypting file: {}", entryPath);
-            outputStream.putNextEntry(copyZipEntry(zipEntry));
-            decryptFile(outputStream, inputZip.getInputStream(zipEntry).readAllBytes(), contentEntry.key);
-            outputStream.closeEntry();
+        if (transformer != null) {
+            bytes = transform(transformer, zipEntry.getName(), bytes, report);
+        }
+        var key = RandomStringUtils.randomAlphanumeric(KEY_LENGTH);
+        var start = System.nanoTime();
+        CFB8Cipher.get().init(Cipher.ENCRYPT_MODE, key).update(bytes, 0, bytes.length);
+        report.recordEncryption(bytes.length, System.nanoTime() - start);
+        outputStream.write(bytes);
+        if (content != null) {
+            deduplicator.put(zipEntry, content, bytes, key, transformer);
         }
-        // Copy excluded files
-        for (var excluded : EXCLUDED_FILES) {
-            // manifest.json, pack_icon.png, bug_pack_icon.png etc...
-            // Just copy it to output folder as they are not encrypted
-            var zipEntry = inputZip.getEntry(excluded);
-            if (zipEntry == null) continue;
+        return key;
+    }
 
-            log.info("Copying file: {}", excluded);
-            outputStream.putNextEntry(copyZipEntry(zipEntry));
-            outputStream.write(inputZip.getInputStream(zipEntry).readAllBytes());
-            outputStream.closeEntry();
+    private static byte[] transform(FileTransformer transformer, String path, byte[] bytes, EncryptReport report) {
+        var length = bytes.length;
+        try {
+            var transformed = transformer.transform(path, bytes);
+            report.recordTransform(length, transformed.length);
+            return transformed;
+        } catch (IOException | RuntimeException e) {
+            // A transformer must never make the whole pack fail, e.g. on a corrupt file
+            log.warn("Cannot transform file {}, encrypt it as it is: {}", path, e.toString());
+            return bytes;
         }
+    }
+
+    @SneakyThrows
+    private static void decrypt0(ZipFile inputZip, Path outputPath, String key, ProgressListener progressListener) {
+        var contentsJson = findContentsJson(inputZip, "contents.json");
+
+        var totalBytes = progressListener != null ? inputZip.stream().mapToLong(PackEncryptor::sizeOf).sum() : 0;
+        var processedBytes = new AtomicLong();
+        Consumer<ZipEntry> progress = zipEntry -> {
+            if (progressListener != null) {
+                progressListener.onProgress(processedBytes.addAndGet(sizeOf(zipEntry)), totalBytes);
+            }
+        };
+        // A wrong key only shows while contents.json is being parsed, when the output is already
+        // being written. It is only moved in place once the whole pack is decrypted
+        writeOutput(outputPath, outputStream -> {
+            // Decrypt files while contents.json is being parsed
+            readContentsJson(inputZip, contentsJson, key, contentEntry -> {
+                if (contentEntry.key != null) {
+                    decryptEntry(inputZip, outputStream, contentEntry.path, contentEntry.key, progress);
+                }
+            });
+            // Copy excluded files
+            for (var excluded : EXCLUDED_FILES) {
+                // manifest.json, pack_icon.png, bug_pack_icon.png etc...
+                // Just copy it to output folder as they are not encrypted
+                var zipEntry = inputZip.getEntry(excluded);
+                if (zipEntry == null) continue;
+
+                log.info("Copying file: {}", excluded);
+                outputStream.putNextEntry(copyZipEntry(zipEntry));
+                try (var input = inputZip.getInputStream(zipEntry)) {
+                    input.transferTo(outputStream);
+                }
+                outputStream.closeEntry();
+                progress.accept(zipEntry);
+            }
 
-        // Handle sub packs (if exist)
-        inputZip.stream().filter(PackEncryptor::isSubPackRoot).forEach(zipEntry -> decryptSubPack(inputZip, outputStream, zipEntry.getName(), key));
+            // Handle sub packs (if exist). Look for their contents.json, as directory entries are optional in zip files
+            inputZip.stream()
+                    .map(ZipEntry::getName)
+                    .filter(PackEncryptor::isSubPackContentsJson)
+                    .forEach(name -> decryptSubPack(inputZip, outputStream, getSubPackPath(name), key, progress));
+        });
 
-        outputStream.close();
+        if (progressListener != null) {
+            // The contents.json files and the entries they do not list are not decrypted
+            progressListener.onProgress(totalBytes, totalBytes);
+        }
         log.info("Decrypted file {} with key {} successfully. Output file: {}", inputZip.getName(), key, outputPath);
     }
 
+    /**
+     * Write the output pack to a temporary file next to it, and replace the output with it only
+     * once it is complete. A failure leaves any previous output untouched.
+     */
+    private static void writeOutput(Path outputPath, OutputWriter writer) throws Exception {
+        var directory = outputPath.toAbsolutePath().getParent();
+        var temp = Files.createTempFile(directory, outputPath.getFileName().toString(), ".tmp");
+        try {
+            try (var outputStream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE), StandardCharsets.UTF_8)) {
+                writer.write(outputStream);
+            }
+            // The chunk index written for the previous output would be stale
+            Files.deleteIfExists(ChunkedPack.indexPathOf(outputPath));
+            Files.move(temp, outputPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
     @SneakyThrows
-    private static void decryptSubPack(ZipFile inputZip, ZipOutputStream zos, String subPackPath, String key) {
+    private static void decryptSubPack(ZipFile inputZip, ZipOutputStream zos, String subPackPath, String key, Consumer<ZipEntry> progress) {
         log.info("Decrypting sub pack: {}", subPackPath);
-        Content content = decryptContentsJson(inputZip, subPackPath + "contents.json", key);
-
-        for (var contentEntry : content.content) {
-            var entryPath = subPackPath + contentEntry.path;
-            var zipEntry = inputZip.getEntry(entryPath);
-            if (zipEntry == null) {
-                log.error("Zip entry not exists: {}", entryPath);
-                continue;
-            }
-            zos.putNextEntry(copyZipEntry(zipEntry));
-            var bytes = inputZip.getInputStream(zipEntry).readAllBytes();
-            log.info("Decrypting sub pack file: {}", entryPath);
-            decryptFile(zos, bytes, contentEntry.key);
-            zos.closeEntry();
+        var contentsJson = findContentsJson(inputZip, subPackPath + "contents.json");
+        readContentsJson(inputZip, contentsJson, key, contentEntry -> decryptEntry(inputZip, zos, subPackPath + contentEntry.path, contentEntry.key, progress));
+    }
+
+    @SneakyThrows
+    private static void decryptEntry(ZipFile inputZip, ZipOutputStream zos, String entryPath, String entryKey, Consumer<ZipEntry> progress) {
+        var zipEntry = inputZip.getEntry(entryPath);
+        if (zipEntry == null) {
+            log.error("Zip entry not exists: {}", entryPath);
+            return;
         }
+
+        log.info("Decrypting file: {}", entryPath);
+        zos.putNextEntry(copyZipEntry(zipEntry));
+        decryptFile(zos, inputZip, zipEntry, entryKey);
+        zos.closeEntry();
+        progress.accept(zipEntry);
     }
 
     @SneakyThrows
-    private static void decryptFile(ZipOutputStream zos, byte[] bytes, String entryKey) {
+    private static void decryptFile(ZipOutputStream zos, ZipFile inputZip, ZipEntry zipEntry, String entryKey) {
         var entryKeyBytes = entryKey.getBytes(StandardCharsets.UTF_8);
         if (entryKeyBytes.length != KEY_LENGTH) {
             log.error("Invalid key length (length should be {}): {}", KEY_LENGTH, entryKey);
             return;
         }
-        var secretKey = new SecretKeySpec(entryKeyBytes, "AES");
-        var cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(entryKey.substring(0, 16).getBytes(StandardCharsets.UTF_8)));
-        var decryptedBytes = cipher.doFinal(bytes);
-        zos.write(decryptedBytes);
+        var cipher = CFB8Cipher.get().init(Cipher.DECRYPT_MODE, entryKey);
+        try (var input = inputZip.getInputStream(zipEntry)) {
+            transfer(input, zos, cipher);
+        }
     }
 
-    @SneakyThrows
-    private static Content decryptContentsJson(ZipFile inputZip, String subPackPath, String key) {
-        var entry = inputZip.getEntry(subPackPath);
+    /**
+     * Pipe the input through the cipher into the output.
+     *
+     * @return the time spent in the cipher, in nanoseconds
+     */
+    private static long transfer(InputStream input, OutputStream output, CFB8Cipher cipher) throws IOException {
+        var buffer = BufferPool.DEFAULT.acquire(BUFFER_SIZE);
+        try {
+            var array = buffer.array();
+            var nanos = 0L;
+            int read;
+            while ((read = input.read(array, buffer.arrayOffset(), buffer.capacity())) != -1) {
+                buffer.clear().limit(read);
+                var start = System.nanoTime();
+                cipher.update(buffer);
+                nanos += System.nanoTime() - start;
+                output.write(array, buffer.arrayOffset(), read);
+            }
+            return nanos;
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+
+    private static ZipEntry findContentsJson(ZipFile inputZip, String name) {
+        var entry = inputZip.getEntry(name);
         if (entry == null) {
-            log.error("Cannot find {}, it seems that this file is not encrypted", subPackPath);
+            log.error("Cannot find {}, it seems that this file is not encrypted", name);
             throw new IllegalArgumentException();
         }
+        return entry;
+    }
 
-        try (var stream = inputZip.getInputStream(entry)) {
-            stream.skip(0x100);
-            var bytes = stream.readAllBytes();
-            var secretKey = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "AES");
-            var cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(key.substring(0, 16).getBytes(StandardCharsets.UTF_8)));
-            var decryptedBytes = cipher.doFinal(bytes);
-            Content content = GSON.fromJson(new String(decryptedBytes), Content.class);
-            log.info("Decrypted content json: {}", content);
-            return content;
+    /**
+     * Decrypt and parse a contents.json entry by entry, without loading the whole json in memory.
+     *
+     * @param consumer called for every entry as soon as it is parsed
+     */
+    @SneakyThrows
+    private static void readContentsJson(ZipFile inputZip, ZipEntry contentsJson, String key, Consumer<ContentEntry> consumer) {
+        try (var stream = inputZip.getInputStream(contentsJson)) {
+            stream.skipNBytes(0x100);
+            // The consumer decrypts files with the thread's cipher, so this stream needs its own one
+            var reader = GSON.newJsonReader(new InputStreamReader(CFB8Cipher.create().init(Cipher.DECRYPT_MODE, key).wrap(stream), StandardCharsets.UTF_8));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("content")) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    consumer.accept(GSON.fromJson(reader, ContentEntry.class));
+                }
+                reader.endArray();
+            }
+            reader.endObject();
         }
     }
 
+    /**
+     * @return {@code true} if the entry will be encrypted with its own entry key
+     */
+    private static boolean isEncryptedFile(ZipEntry zipEntry) {
+        if (zipEntry.isDirectory() || EXCLUDED_FILES.contains(zipEntry.getName())) {
+            return false;
+        }
+
+        return !isSubPackFile(zipEntry) || getSubPackPath(zipEntry.getName()) != null;
+    }
+
     private static boolean isSubPackFile(ZipEntry zipEntry) {
         return zipEntry.getName().startsWith("subpacks/");
     }
 
-    private static boolean isSubPackRoot(ZipEntry zipEntry) {
-        return zipEntry.isDirectory() &&
-               zipEntry.getName().startsWith("subpacks/") &&
-               calculateCharCount(zipEntry.getName(), '/') == 2;
+    /**
+     * Get the root path of the sub pack which contains the given entry.
+     *
+     * @param name the name of the entry
+     * @return the path in the form of {@code subpacks/<name>/}, or {@code null} if the entry is not in a sub pack
+     */
+    private static String getSubPackPath(String name) {
+        if (!name.startsWith("subpacks/")) {
+            return null;
+        }
+
+        var end = name.indexOf('/', "subpacks/".length());
+        return end == -1 ? null : name.substring(0, end + 1);
+    }
+
+    private static boolean isSubPackContentsJson(String name) {
+        var subPackPath = getSubPackPath(name);
+        return subPackPath != null && name.length() == subPackPath.length() + "contents.json".length() && name.endsWith("contents.json");
     }
 
     private static boolean checkArgs(Path inputPath, Path outputPath, String key) {
@@ -324,41 +510,59 @@ public final class PackEncryptor {
         return true;
     }
 
-    private static void paddingTo(ByteArrayOutputStream stream, int pos) {
-        if (pos <= stream.size()) {
-            throw new IllegalArgumentException("pos must be bigger than stream size");
+    private static void paddingTo(ByteBuffer buffer, int pos) {
+        if (pos <= buffer.position()) {
+            throw new IllegalArgumentException("pos must be bigger than buffer position");
         }
 
-        var need = pos - stream.size();
-        for (int i = 0; i < need; i++) {
-            stream.write(0);
+        // Pooled buffers are not zeroed
+        while (buffer.position() < pos) {
+            buffer.put((byte) 0);
         }
     }
 
     @SneakyThrows
-    private static String findPackUUID(ZipFile zip) {
+    static String findPackUUID(ZipFile zip) {
         var manifestEntry = zip.getEntry("manifest.json");
         if (manifestEntry == null) {
             throw new IllegalArgumentException("manifest file not exists");
         }
 
-        Manifest manifest = GSON.fromJson(new JsonReader(new InputStreamReader(zip.getInputStream(manifestEntry), StandardCharsets.UTF_8)), Manifest.class);
-        return manifest.header.uuid;
-    }
+        // Only walk the json until header.uuid is found, the rest of the manifest is never parsed
+        try (var reader = GSON.newJsonReader(new InputStreamReader(zip.getInputStream(manifestEntry), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("header")) {
+                    reader.skipValue();
+                    continue;
+                }
 
-    private static int calculateCharCount(String str, char target) {
-        int count = 0;
-        for (char c : str.toCharArray()) {
-            if (c == target) {
-                count++;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("uuid")) {
+                        return reader.nextString();
+                    }
+                    reader.skipValue();
+                }
+                reader.endObject();
             }
         }
+        throw new IllegalArgumentException("header.uuid not found in manifest file");
+    }
 
-        return count;
+    private static long sizeOf(ZipEntry zipEntry) {
+        return Math.max(zipEntry.getSize(), 0);
     }
 
     private static ZipEntry copyZipEntry(ZipEntry entry) {
-        var newEntry = new ZipEntry(entry);
+        // Only keep the name, time and comment. Sizes, crc-32 and extra fields (including the ZIP64 one)
+        // describe the source data, ZipOutputStream computes them again and switches to ZIP64 by itself
+        var newEntry = new ZipEntry(entry.getName());
+        var lastModifiedTime = entry.getLastModifiedTime();
+        if (lastModifiedTime != null) {
+            newEntry.setLastModifiedTime(lastModifiedTime);
+        }
+        newEntry.setComment(entry.getComment());
         // Explicitly set method to DEFLATED to avoid invalid crc-32 error
         newEntry.setMethod(ZipEntry.DEFLATED);
         return newEntry;
@@ -368,12 +572,8 @@ public final class PackEncryptor {
 
     protected record ContentEntry(String path, String key) {}
 
-    protected static class Manifest {
-
-        protected Header header;
-
-        protected static class Header {
-            private String uuid;
-        }
+    @FunctionalInterface
+    private interface OutputWriter {
+        void write(ZipOutputStream outputStream) throws Exception;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package org.allaymc.encryptmypack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Recompress the image data of png files with the best deflate level.
+ * <p>
+ * Only the IDAT chunks are touched: they are merged into one chunk and deflated again.
+ * Pixels and all other chunks (palette, gamma, color profile, text...) are kept byte for byte.
+ * The image data is never inflated beyond the size given by the IHDR chunk, so a small file
+ * declaring a small image cannot expand to gigabytes in memory.
+ *
+ * @author daoge_cmd
+ */
+public final class PngOptimizer implements FileTransformer {
+
+    private static final byte[] SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int IDAT = 0x49444154;
+    // Larger images are left as they are, their raw data would take too much memory
+    private static final long MAX_RAW_SIZE = 256L * 1024 * 1024;
+
+    @Override
+    public boolean accepts(String path) {
+        return path.endsWith(".png");
+    }
+
+    @Override
+    public byte[] transform(String path, byte[] bytes) throws IOException {
+        if (bytes.length < SIGNATURE.length || !Arrays.equals(bytes, 0, SIGNATURE.length, SIGNATURE, 0, SIGNATURE.length)) {
+            throw new IOException("Not a png file");
+        }
+
+        var buffer = ByteBuffer.wrap(bytes);
+        buffer.position(SIGNATURE.length);
+        var compressed = new ByteArrayOutputStream();
+        int firstIdat = -1;
+        int afterLastIdat = -1;
+        long maxRawSize = -1;
+        while (buffer.remaining() >= 12) {
+            var start = buffer.position();
+            var length = buffer.getInt();
+            var type = buffer.getInt();
+            // Written so that a length close to Integer.MAX_VALUE cannot overflow
+            if (length < 0 || length > buffer.remaining() - 4) {
+                throw new IOException("Truncated png chunk");
+            }
+
+            if (start == SIGNATURE.length) {
+                if (type != IHDR || length != 13) {
+                    throw new IOException("Missing png header chunk");
+                }
+                maxRawSize = maxRawSize(buffer.slice(buffer.position(), length));
+            } else if (type == IDAT) {
+                if (firstIdat == -1) {
+                    firstIdat = start;
+                } else if (afterLastIdat != start) {
+                    throw new IOException("IDAT chunks are not consecutive");
+                }
+                compressed.write(bytes, buffer.position(), length);
+                afterLastIdat = start + 12 + length;
+            }
+            buffer.position(buffer.position() + length + 4);
+        }
+        if (firstIdat == -1) {
+            return bytes;
+        }
+
+        var recompressed = recompress(compressed.toByteArray(), maxRawSize);
+        if (recompressed.length >= compressed.size()) {
+            return bytes;
+        }
+
+        var output = new ByteArrayOutputStream(bytes.length);
+        output.write(bytes, 0, firstIdat);
+        writeChunk(output, recompressed);
+        output.write(bytes, afterLastIdat, bytes.length - afterLastIdat);
+        return output.toByteArray();
+    }
+
+    /**
+     * Compute the size of the raw image data from the IHDR chunk: every row holds a filter type byte
+     * and the pixels of the row. An interlaced image has up to 7 passes, each with its own rows that
+     * add a filter type byte and up to one byte of padding.
+     */
+    private static long maxRawSize(ByteBuffer header) throws IOException {
+        long width = Integer.toUnsignedLong(header.getInt());
+        long height = Integer.toUnsignedLong(header.getInt());
+        var bitDepth = header.get();
+        var channels = switch (header.get()) {
+            case 0, 3 -> 1;
+            case 4 -> 2;
+            case 2 -> 3;
+            case 6 -> 4;
+            default -> throw new IOException("Invalid png color type");
+        };
+        if (bitDepth != 1 && bitDepth != 2 && bitDepth != 4 && bitDepth != 8 && bitDepth != 16) {
+            throw new IOException("Invalid png bit depth");
+        }
+        var interlaced = header.get(12) != 0;
+
+        var rowSize = 1 + (width * channels * bitDepth + 7) / 8;
+        var size = height * rowSize + (interlaced ? 7 * 2 * height : 0);
+        if (size > MAX_RAW_SIZE) {
+            throw new IOException("Png image too large: " + width + "x" + height);
+        }
+        return size;
+    }
+
+    private static byte[] recompress(byte[] compressed, long maxRawSize) throws IOException {
+        var inflater = new Inflater();
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            inflater.setInput(compressed);
+            var raw = new ByteArrayOutputStream((int) Math.min(maxRawSize, compressed.length * 4L));
+            var chunk = new byte[8192];
+            while (!inflater.finished()) {
+                var n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated png image data");
+                }
+                if (raw.size() + n > maxRawSize) {
+                    throw new IOException("Png image data larger than its header declares");
+                }
+                raw.write(chunk, 0, n);
+            }
+
+            deflater.setInput(raw.toByteArray());
+            deflater.finish();
+            var output = new ByteArrayOutputStream(compressed.length);
+            while (!deflater.finished()) {
+                var n = deflater.deflate(chunk);
+                output.write(chunk, 0, n);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid png image data: " + e.getMessage());
+        } finally {
+            inflater.end();
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream output, byte[] data) {
+        var header = ByteBuffer.allocate(8).putInt(data.length).putInt(IDAT).array();
+        var crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data);
+        output.write(header, 0, header.length);
+        output.write(data, 0, data.length);
+        output.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array(), 0, 4);
+    }
+}
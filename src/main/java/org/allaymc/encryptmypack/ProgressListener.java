@@ -0,0 +1,18 @@
+package org.allaymc.encryptmypack;
+
+/**
+ * Receive the progress of an encryption or a decryption.
+ *
+ * @author daoge_cmd
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called after an entry of the pack is processed.
+     *
+     * @param processedBytes the uncompressed size of the entries processed so far
+     * @param totalBytes     the uncompressed size of all entries of the pack
+     */
+    void onProgress(long processedBytes, long totalBytes);
+}
@@ -0,0 +1,53 @@
+package org.allaymc.encryptmypack;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class BufferPoolTest {
+
+    @Test
+    void testReuse() {
+        var pool = new BufferPool();
+        var buffer = pool.acquire(5000);
+        assertEquals(8192, buffer.capacity());
+        assertTrue(buffer.hasArray());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(8000));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    void testIgnoreForeignBuffers() {
+        var pool = new BufferPool();
+        pool.release(ByteBuffer.allocateDirect(4096));
+        pool.release(ByteBuffer.allocate(4096).asReadOnlyBuffer());
+        pool.release(ByteBuffer.allocate(5000));
+        assertTrue(pool.acquire(4096).hasArray());
+        assertEquals(0, pool.getHits());
+    }
+
+    @Test
+    void testCountPerThread() throws InterruptedException {
+        var pool = new BufferPool();
+        pool.release(pool.acquire(4096));
+        var other = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                pool.release(pool.acquire(4096));
+            }
+        });
+        other.start();
+        other.join();
+
+        // The other thread's requests only show up in the global counters
+        assertEquals(0, pool.getThreadHits());
+        assertEquals(1, pool.getThreadMisses());
+        assertEquals(11, pool.getHits() + pool.getMisses());
+    }
+}
@@ -0,0 +1,161 @@
+package org.allaymc.encryptmypack;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check every way of driving {@link CFB8Cipher} byte for byte against a plain JCE cipher.
+ *
+ * @author daoge_cmd
+ */
+class CFB8CipherTest {
+
+    private static final int ROUNDS = 200;
+    private static final String KEY_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    @Test
+    void testUpdateInPlace() throws Exception {
+        var random = new Random(1);
+        for (int round = 0; round < ROUNDS; round++) {
+            var key = randomKey(random);
+            var input = randomInput(random);
+            for (var mode : new int[]{Cipher.ENCRYPT_MODE, Cipher.DECRYPT_MODE}) {
+                var bytes = input.clone();
+                var cipher = CFB8Cipher.get().init(mode, key);
+                // Feed the data in random parts, the stream state must carry over
+                for (int offset = 0; offset < bytes.length; ) {
+                    var length = Math.min(bytes.length - offset, 1 + random.nextInt(4096));
+                    cipher.update(bytes, offset, length);
+                    offset += length;
+                }
+                assertArrayEquals(jce(mode, key, input), bytes, "round " + round);
+            }
+        }
+    }
+
+    @Test
+    void testUpdateDirectBuffer() throws Exception {
+        var random = new Random(2);
+        for (int round = 0; round < ROUNDS; round++) {
+            var key = randomKey(random);
+            var input = randomInput(random);
+            for (var mode : new int[]{Cipher.ENCRYPT_MODE, Cipher.DECRYPT_MODE}) {
+                // Leave some bytes before and after the data, they must not be touched
+                var buffer = ByteBuffer.allocateDirect(input.length + 10);
+                buffer.position(5);
+                buffer.put(input).flip().position(5);
+                CFB8Cipher.get().init(mode, key).update(buffer);
+                assertEquals(buffer.limit(), buffer.position());
+
+                var output = new byte[input.length];
+                buffer.position(5);
+                buffer.get(output);
+                assertArrayEquals(jce(mode, key, input), output, "round " + round);
+            }
+        }
+    }
+
+    @Test
+    void testWrapOutputStream() throws Exception {
+        var random = new Random(3);
+        for (int round = 0; round < ROUNDS; round++) {
+            var key = randomKey(random);
+            var input = randomInput(random);
+            var original = input.clone();
+            var output = new ByteArrayOutputStream();
+            try (var stream = CFB8Cipher.get().init(Cipher.ENCRYPT_MODE, key).wrap(output)) {
+                for (int offset = 0; offset < input.length; ) {
+                    if (random.nextInt(8) == 0) {
+                        stream.write(input[offset++]);
+                        continue;
+                    }
+                    var length = Math.min(input.length - offset, 1 + random.nextInt(20000));
+                    stream.write(input, offset, length);
+                    offset += length;
+                }
+            }
+            assertArrayEquals(original, input, "the written array must not be modified");
+            assertArrayEquals(jce(Cipher.ENCRYPT_MODE, key, input), output.toByteArray(), "round " + round);
+        }
+    }
+
+    @Test
+    void testWrapInputStream() throws Exception {
+        var random = new Random(4);
+        for (int round = 0; round < ROUNDS; round++) {
+            var key = randomKey(random);
+            var input = randomInput(random);
+            var expected = jce(Cipher.DECRYPT_MODE, key, input);
+            var output = new ByteArrayOutputStream();
+            try (var stream = CFB8Cipher.get().init(Cipher.DECRYPT_MODE, key).wrap(new ByteArrayInputStream(input))) {
+                var buffer = new byte[1 + random.nextInt(8192)];
+                while (true) {
+                    if (random.nextInt(8) == 0) {
+                        // Also skips nothing or a negative count, which must not move the stream
+                        var skipped = stream.skip(random.nextInt(72) - 8);
+                        output.write(expected, output.size(), (int) skipped);
+                        continue;
+                    }
+                    if (random.nextInt(8) == 0) {
+                        var b = stream.read();
+                        if (b == -1) {
+                            break;
+                        }
+                        output.write(b);
+                        continue;
+                    }
+                    var read = stream.read(buffer, 0, buffer.length);
+                    if (read == -1) {
+                        break;
+                    }
+                    output.write(buffer, 0, read);
+                }
+            }
+            assertArrayEquals(expected, output.toByteArray(), "round " + round);
+        }
+    }
+
+    @Test
+    void testNonAsciiKey() throws Exception {
+        // 16 ascii characters for the iv, then 8 two-byte characters: 32 bytes in UTF-8
+        var key = "abcdefghijklmnop\u00e9\u00e8\u00ea\u00eb\u00e0\u00e2\u00e4\u00f4";
+        var input = randomInput(new Random(5));
+        for (var mode : new int[]{Cipher.ENCRYPT_MODE, Cipher.DECRYPT_MODE}) {
+            var bytes = input.clone();
+            CFB8Cipher.get().init(mode, key).update(bytes, 0, bytes.length);
+            assertArrayEquals(jce(mode, key, input), bytes);
+        }
+    }
+
+    private static byte[] jce(int mode, String key, byte[] input) throws Exception {
+        var cipher = Cipher.getInstance("AES/CFB8/NoPadding");
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        cipher.init(mode, new SecretKeySpec(keyBytes, "AES"), new IvParameterSpec(keyBytes, 0, 16));
+        return cipher.doFinal(input);
+    }
+
+    private static String randomKey(Random random) {
+        var key = new StringBuilder();
+        for (int i = 0; i < 32; i++) {
+            key.append(KEY_CHARS.charAt(random.nextInt(KEY_CHARS.length())));
+        }
+        return key.toString();
+    }
+
+    private static byte[] randomInput(Random random) {
+        // Mostly small files, with some bigger than the stream buffers
+        var bytes = new byte[random.nextInt(4) == 0 ? random.nextInt(200_000) : random.nextInt(2048)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
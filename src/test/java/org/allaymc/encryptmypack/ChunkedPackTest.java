@@ -0,0 +1,175 @@
+package org.allaymc.encryptmypack;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class ChunkedPackTest {
+
+    private static final String KEY = "abcdefghijklmnopqrstuvwxyz012345";
+    // Does not divide the pack size, so the last chunk is shorter
+    private static final int CHUNK_SIZE = 64 * 1024 + 7;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testConcurrentClients() throws Exception {
+        var packPath = encryptedPack(1_000_000);
+        var packBytes = Files.readAllBytes(packPath);
+        var index = ChunkedPack.writeIndex(packPath, CHUNK_SIZE);
+        assertNotEquals(0, packBytes.length % CHUNK_SIZE);
+        assertEquals((packBytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE, index.chunks().size());
+        assertEquals(sha256(packBytes), index.sha256());
+
+        var pack = ChunkedPack.open(packPath, true);
+        assertEquals(index, pack.getIndex());
+
+        // Every client fetches all chunks in its own order, as players joining at the same time would
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var clients = new ArrayList<Future<byte[]>>();
+            for (int client = 0; client < 16; client++) {
+                var order = new ArrayList<Integer>();
+                for (int i = 0; i < pack.getChunkCount(); i++) {
+                    order.add(i);
+                }
+                Collections.shuffle(order, new Random(client));
+                clients.add(executor.submit(fetchAll(pack, order)));
+            }
+            for (var client : clients) {
+                var received = client.get();
+                assertEquals(index.sha256(), sha256(received));
+                assertArrayEquals(packBytes, received);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testStaleIndexIsRejected() throws IOException {
+        var packPath = encryptedPack(100_000);
+        ChunkedPack.writeIndex(packPath, CHUNK_SIZE);
+        var lastModified = Files.getLastModifiedTime(packPath);
+
+        // Another pack of the same size in place of the indexed one
+        var bytes = Files.readAllBytes(packPath);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(packPath, bytes);
+        Files.setLastModifiedTime(packPath, FileTime.fromMillis(lastModified.toMillis() + 2000));
+        assertThrows(IOException.class, () -> ChunkedPack.open(packPath));
+
+        // Even with the same modification time, the checksum tells them apart
+        Files.setLastModifiedTime(packPath, lastModified);
+        assertNotNull(ChunkedPack.open(packPath));
+        assertThrows(IOException.class, () -> ChunkedPack.open(packPath, true));
+    }
+
+    @Test
+    void testCorruptedIndexIsRejected() throws IOException {
+        var packPath = encryptedPack(200_000);
+        var index = ChunkedPack.writeIndex(packPath, CHUNK_SIZE);
+        var chunks = index.chunks();
+        var last = chunks.get(chunks.size() - 1);
+
+        // No chunk size
+        assertCorrupted(packPath, new ChunkedPack.ChunkIndex(0, index.size(), index.lastModified(), index.sha256(), chunks));
+        // A chunk missing
+        assertCorrupted(packPath, withChunks(index, chunks.subList(0, chunks.size() - 1)));
+        // A chunk too many
+        var extra = new ArrayList<>(chunks);
+        extra.add(new ChunkedPack.Chunk(index.size(), 1, last.sha256()));
+        assertCorrupted(packPath, withChunks(index, extra));
+        // A chunk past the end of the pack
+        var outside = new ArrayList<>(chunks);
+        outside.set(chunks.size() - 1, new ChunkedPack.Chunk(last.offset(), CHUNK_SIZE, last.sha256()));
+        assertCorrupted(packPath, withChunks(index, outside));
+        // A chunk out of place
+        var swapped = new ArrayList<>(chunks);
+        Collections.swap(swapped, 0, 1);
+        assertCorrupted(packPath, withChunks(index, swapped));
+
+        ChunkedPack.writeIndex(packPath, CHUNK_SIZE);
+        assertNotNull(ChunkedPack.open(packPath, true));
+    }
+
+    @Test
+    void testEncryptDeletesIndex() throws IOException {
+        var packPath = encryptedPack(1000);
+        ChunkedPack.writeIndex(packPath, CHUNK_SIZE);
+        assertTrue(Files.exists(ChunkedPack.indexPathOf(packPath)));
+
+        assertTrue(PackEncryptor.encrypt(tempDir.resolve("input.zip"), packPath, KEY));
+        assertFalse(Files.exists(ChunkedPack.indexPathOf(packPath)));
+    }
+
+    private static ChunkedPack.ChunkIndex withChunks(ChunkedPack.ChunkIndex index, List<ChunkedPack.Chunk> chunks) {
+        return new ChunkedPack.ChunkIndex(index.chunkSize(), index.size(), index.lastModified(), index.sha256(), chunks);
+    }
+
+    private static void assertCorrupted(Path packPath, ChunkedPack.ChunkIndex index) throws IOException {
+        Files.writeString(ChunkedPack.indexPathOf(packPath), new Gson().toJson(index));
+        assertThrows(IOException.class, () -> ChunkedPack.open(packPath));
+    }
+
+    /**
+     * Receive every chunk in the given order, check it against the index and put it at its offset.
+     */
+    private static Callable<byte[]> fetchAll(ChunkedPack pack, Iterable<Integer> order) {
+        return () -> {
+            var received = new byte[(int) pack.getIndex().size()];
+            for (var i : order) {
+                var chunk = pack.getChunk(i);
+                var info = pack.getIndex().chunks().get(i);
+                assertEquals(info.size(), chunk.remaining());
+                var bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                assertEquals(info.sha256(), sha256(bytes), "chunk " + i);
+                System.arraycopy(bytes, 0, received, (int) info.offset(), bytes.length);
+            }
+            return received;
+        };
+    }
+
+    /**
+     * @return an encrypted pack holding the given number of random bytes, which do not compress
+     */
+    private Path encryptedPack(int randomBytes) throws IOException {
+        var bytes = new byte[randomBytes];
+        new Random(randomBytes).nextBytes(bytes);
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", PackEncryptorTest.manifest());
+        files.put("textures/random.bin", bytes);
+        var input = tempDir.resolve("input.zip");
+        PackEncryptorTest.writeZip(input, files);
+
+        var output = tempDir.resolve("encrypted.zip");
+        assertTrue(PackEncryptor.encrypt(input, output, KEY));
+        return output;
+    }
+
+    private static String sha256(byte[] bytes) {
+        var digest = Checksums.sha256();
+        digest.update(bytes);
+        return Checksums.hex(digest);
+    }
+}
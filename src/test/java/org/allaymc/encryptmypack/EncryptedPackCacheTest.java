@@ -0,0 +1,216 @@
+package org.allaymc.encryptmypack;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class EncryptedPackCacheTest {
+
+    private static final String KEY = "abcdefghijklmnopqrstuvwxyz012345";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testHit() throws IOException {
+        var cache = new EncryptedPackCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        var input = pack("a", 0);
+        var first = cache.encrypt(input, KEY, EncryptOptions.DEFAULT);
+        assertNotNull(first);
+        var modified = Files.getLastModifiedTime(first.path());
+
+        var second = cache.encrypt(input, KEY, EncryptOptions.DEFAULT);
+        assertEquals(first, second);
+        assertEquals(modified, Files.getLastModifiedTime(second.path()), "a hit must not encrypt the pack again");
+
+        var name = first.path().getFileName().toString();
+        var metadata = first.path().resolveSibling(name.substring(0, name.length() - ".zip".length()) + ".json");
+        assertFalse(Files.readString(metadata).contains(KEY), "the key must not be stored next to the archive");
+    }
+
+    @Test
+    void testCorruptedArchiveIsEncryptedAgain() throws IOException {
+        var cache = new EncryptedPackCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        var input = pack("a", 10_000);
+        var first = cache.encrypt(input, KEY, EncryptOptions.DEFAULT);
+        assertNotNull(first);
+
+        // Same size, different content
+        var bytes = Files.readAllBytes(first.path());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(first.path(), bytes);
+
+        var second = cache.encrypt(input, KEY, EncryptOptions.DEFAULT);
+        assertNotNull(second);
+        assertNotEquals(first.sha256(), second.sha256(), "the corrupted archive must be encrypted again");
+        assertEquals(second.sha256(), Checksums.sha256(second.path()));
+        assertDecrypts(second);
+    }
+
+    @Test
+    void testConcurrentAccess() throws Exception {
+        var directory = tempDir.resolve("cache");
+        var inputs = new ArrayList<Path>();
+        for (int i = 0; i < 4; i++) {
+            inputs.add(pack("pack" + i, 20_000));
+        }
+        var keys = List.of(KEY, "ZYXWVUTSRQPONMLKJIHGFEDCBA987654");
+
+        // Two caches on the same directory, as two servers sharing it would have
+        var caches = List.of(new EncryptedPackCache(directory, Long.MAX_VALUE), new EncryptedPackCache(directory, Long.MAX_VALUE));
+        var executor = Executors.newFixedThreadPool(8);
+        var results = new ArrayList<Future<EncryptedPackCache.CachedPack>>();
+        try {
+            for (int round = 0; round < 4; round++) {
+                for (var input : inputs) {
+                    for (var key : keys) {
+                        var cache = caches.get(results.size() % caches.size());
+                        results.add(executor.submit(() -> cache.encrypt(input, key, EncryptOptions.DEFAULT)));
+                    }
+                }
+            }
+
+            // Every pack and key is encrypted once, then every other call is a hit on the same archive
+            var packs = new HashMap<String, EncryptedPackCache.CachedPack>();
+            for (var result : results) {
+                var pack = result.get();
+                assertNotNull(pack);
+                var previous = packs.putIfAbsent(pack.path().toString(), pack);
+                if (previous != null) {
+                    assertEquals(previous, pack);
+                }
+            }
+            assertEquals(inputs.size() * keys.size(), packs.size());
+            for (var pack : packs.values()) {
+                assertEquals(pack.sha256(), Checksums.sha256(pack.path()));
+                assertDecrypts(pack);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testTransformerCacheId() throws IOException {
+        var cache = new EncryptedPackCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        var input = pack("a", 0);
+        var first = cache.encrypt(input, KEY, EncryptOptions.builder().transformer(new ConfiguredTransformer("first")).build());
+        var second = cache.encrypt(input, KEY, EncryptOptions.builder().transformer(new ConfiguredTransformer("second")).build());
+        var again = cache.encrypt(input, KEY, EncryptOptions.builder().transformer(new ConfiguredTransformer("first")).build());
+        assertNotEquals(first.path(), second.path());
+        assertEquals(first, again);
+    }
+
+    @Test
+    void testSizeLimit() throws IOException {
+        var directory = tempDir.resolve("cache");
+        // Room for about two packs
+        var cache = new EncryptedPackCache(directory, 2 * 40_000);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.encrypt(pack("pack" + i, 30_000), KEY, EncryptOptions.DEFAULT));
+            assertTrue(archivesSize(directory) <= 2 * 40_000, "cache is over its size limit");
+        }
+    }
+
+    @Test
+    void testLeftoversAreRemoved() throws IOException {
+        var directory = tempDir.resolve("cache");
+        var cache = new EncryptedPackCache(directory, Long.MAX_VALUE);
+        var orphanedArchive = Files.writeString(directory.resolve("a".repeat(64) + ".zip"), "archive");
+        var orphanedMetadata = Files.writeString(directory.resolve("b".repeat(64) + ".json"), "{}");
+        var orphanedIndex = Files.writeString(directory.resolve("c".repeat(64) + ".zip.chunks"), "{}");
+        var staleTemp = Files.writeString(directory.resolve("d".repeat(64) + "123.zip.tmp"), "temp");
+        Files.setLastModifiedTime(staleTemp, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        var freshTemp = Files.writeString(directory.resolve("e".repeat(64) + "456.zip.tmp"), "temp");
+        var unrelated = Files.writeString(directory.resolve("notes.txt"), "keep me");
+
+        assertNotNull(cache.encrypt(pack("a", 0), KEY, EncryptOptions.DEFAULT));
+        assertFalse(Files.exists(orphanedArchive));
+        assertFalse(Files.exists(orphanedMetadata));
+        assertFalse(Files.exists(orphanedIndex));
+        assertFalse(Files.exists(staleTemp));
+        // May belong to a pack that is being encrypted right now
+        assertTrue(Files.exists(freshTemp));
+        assertTrue(Files.exists(unrelated));
+    }
+
+    @Test
+    void testLockFilesAreBounded() throws IOException {
+        var directory = tempDir.resolve("cache");
+        var cache = new EncryptedPackCache(directory, Long.MAX_VALUE);
+        for (int i = 0; i < 300; i++) {
+            assertNotNull(cache.encrypt(pack("pack" + i, 0), KEY, EncryptOptions.DEFAULT));
+        }
+        try (var files = Files.list(directory)) {
+            assertTrue(files.filter(file -> file.toString().endsWith(".lock")).count() <= 256);
+        }
+    }
+
+    private void assertDecrypts(EncryptedPackCache.CachedPack pack) throws IOException {
+        var decrypted = Files.createTempFile(tempDir, "decrypted", ".zip");
+        assertTrue(PackEncryptor.decrypt(pack.path(), decrypted, pack.key()));
+    }
+
+    /**
+     * Write a pack with a name of its own and some random bytes that do not compress.
+     */
+    private Path pack(String name, int randomBytes) throws IOException {
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", PackEncryptorTest.manifest());
+        files.put("texts/en_US.lang", ("pack.name=" + name).getBytes(StandardCharsets.UTF_8));
+        var bytes = new byte[randomBytes];
+        new Random(name.hashCode()).nextBytes(bytes);
+        files.put("textures/random.bin", bytes);
+        var path = tempDir.resolve(name + ".zip");
+        PackEncryptorTest.writeZip(path, files);
+        return path;
+    }
+
+    private record ConfiguredTransformer(String setting) implements FileTransformer {
+        @Override
+        public boolean accepts(String path) {
+            return false;
+        }
+
+        @Override
+        public byte[] transform(String path, byte[] bytes) {
+            return bytes;
+        }
+
+        @Override
+        public String getCacheId() {
+            return "configured:" + setting;
+        }
+    }
+
+    private static long archivesSize(Path directory) throws IOException {
+        var size = 0L;
+        try (var files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(".zip")) {
+                    size += Files.size(file);
+                }
+            }
+        }
+        return size;
+    }
+}
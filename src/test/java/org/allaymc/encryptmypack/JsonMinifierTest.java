@@ -0,0 +1,72 @@
+package org.allaymc.encryptmypack;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class JsonMinifierTest {
+
+    private final JsonMinifier minifier = new JsonMinifier();
+
+    @Test
+    void testRemoveWhitespaceAndComments() throws IOException {
+        assertEquals(
+                "{\"a\":1.0,\"b\":[true,null,\"x y\"],\"c\":{}}",
+                minify("""
+                        // leading comment
+                        {
+                          "a": 1.0, /* block
+                          comment */
+                          "b": [ true, null, "x y" ], // trailing comment
+                          "c": { }
+                        }
+                        """)
+        );
+    }
+
+    @Test
+    void testKeepTrailingCommas() throws IOException {
+        // A lenient json reader would read an extra null element here
+        assertEquals("{\"a\":[1,2,],}", minify("{\n \"a\": [ 1, 2, ],\n}"));
+    }
+
+    @Test
+    void testKeepStringsUnchanged() throws IOException {
+        assertEquals(
+                "{\"k\":\"  // not a comment /* \\\" \\u00e9 \u00e9 \"}",
+                minify("{ \"k\" : \"  // not a comment /* \\\" \\u00e9 \u00e9 \" }")
+        );
+    }
+
+    @Test
+    void testKeepBareTokensApart() throws IOException {
+        assertEquals("[1 2,a b]", minify("[ 1 /* c */ 2 , a\nb ]"));
+    }
+
+    @Test
+    void testKeepDuplicateKeysAndNumbers() throws IOException {
+        assertEquals("{\"a\":1e3,\"a\":-0.50,\"n\":10000000000000000000001}", minify("{ \"a\": 1e3, \"a\": -0.50, \"n\": 10000000000000000000001 }"));
+    }
+
+    @Test
+    void testInvalidFile() {
+        assertThrows(IOException.class, () -> minify("{ \"a\": \"unterminated }"));
+        assertThrows(IOException.class, () -> minify("{ \"a\": 1 } /* unterminated"));
+    }
+
+    @Test
+    void testKeepSmallerOriginal() throws IOException {
+        var bytes = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        assertSame(bytes, minifier.transform("a.json", bytes));
+    }
+
+    private String minify(String json) throws IOException {
+        return new String(minifier.transform("test.json", json.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+}
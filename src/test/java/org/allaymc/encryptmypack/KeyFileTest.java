@@ -0,0 +1,60 @@
+package org.allaymc.encryptmypack;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class KeyFileTest {
+
+    private static final String KEY = "abcdefghijklmnopqrstuvwxyz012345";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRoundTrip() throws IOException {
+        var keys = new LinkedHashMap<Path, String>();
+        keys.put(tempDir.resolve("plain_encrypted.zip"), KEY);
+        keys.put(tempDir.resolve("a, b_encrypted.zip"), "ABCDEFGHIJKLMNOPQRSTUVWXYZ012345");
+        keys.put(tempDir.resolve("say \"hi\"_encrypted.zip"), "0123456789abcdefghijklmnopqrstuv");
+        var file = tempDir.resolve("keys.csv");
+        KeyFile.write(file, keys);
+
+        assertEquals(keys, KeyFile.read(file));
+        assertTrue(Files.readString(file).contains("\"" + tempDir.resolve("a, b_encrypted.zip") + "\""));
+    }
+
+    @Test
+    void testRead() throws IOException {
+        var file = tempDir.resolve("keys.csv");
+        // Byte order mark, relative path, unix line endings, quoted key and a trailing empty line
+        Files.writeString(file, "\uFEFFfile,key\npacks/a.zip,\"" + KEY + "\"\n\n", StandardCharsets.UTF_8);
+
+        var keys = KeyFile.read(file);
+        assertEquals(1, keys.size());
+        assertEquals(KEY, keys.get(tempDir.resolve("packs/a.zip")));
+    }
+
+    @Test
+    void testInvalidFile() throws IOException {
+        var file = tempDir.resolve("keys.csv");
+        Files.writeString(file, "path;key\na.zip;" + KEY + "\n");
+        assertThrows(IOException.class, () -> KeyFile.read(file));
+
+        Files.writeString(file, "file,key\n\"a.zip," + KEY + "\n");
+        assertThrows(IOException.class, () -> KeyFile.read(file));
+
+        Files.writeString(file, "file,key\na.zip," + KEY + ",extra\n");
+        assertThrows(IOException.class, () -> KeyFile.read(file));
+    }
+}
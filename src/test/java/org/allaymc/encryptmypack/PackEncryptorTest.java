@@ -0,0 +1,358 @@
+package org.allaymc.encryptmypack;
+
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class PackEncryptorTest {
+
+    private static final String KEY = "abcdefghijklmnopqrstuvwxyz012345";
+    // Signature of the ZIP64 end of central directory record
+    private static final byte[] ZIP64_END_SIGNATURE = {0x50, 0x4b, 0x06, 0x06};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRoundTrip() throws IOException {
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        files.put("pack_icon.png", new byte[]{1, 2, 3});
+        files.put("textures/blocks/stone.png", "stone".getBytes(StandardCharsets.UTF_8));
+        files.put("texts/en_US.lang", "pack.name=Test".getBytes(StandardCharsets.UTF_8));
+        files.put("subpacks/high/textures/blocks/stone.png", "high stone".getBytes(StandardCharsets.UTF_8));
+        assertRoundTrip(files);
+    }
+
+    @Test
+    void testMoreThan65535Entries() throws IOException {
+        // More entries than the 16-bit count of the classic end of central directory record.
+        // No directory entries, as many real packs are zipped that way
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        for (int i = 0; i < 70_002; i++) {
+            files.put("textures/" + (i % 100) + "/" + i + ".png", ("entry " + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        var encrypted = assertRoundTrip(files);
+        assertTrue(hasZip64EndRecord(encrypted), "ZIP64 end of central directory record is missing");
+        try (var zip = new ZipFile(encrypted.toFile())) {
+            // Every file plus the contents.json
+            assertEquals(files.size() + 1, zip.size());
+        }
+    }
+
+    @Test
+    void testFailingTransformer() throws IOException {
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        files.put("textures/a.png", "not really a png".getBytes(StandardCharsets.UTF_8));
+        var input = tempDir.resolve("input.zip");
+        var encrypted = tempDir.resolve("encrypted.zip");
+        var decrypted = tempDir.resolve("decrypted.zip");
+        writeZip(input, files);
+
+        // A broken transformer keeps the original file instead of failing the whole pack
+        var options = EncryptOptions.builder().transformer(new FileTransformer() {
+            @Override
+            public boolean accepts(String path) {
+                return true;
+            }
+
+            @Override
+            public byte[] transform(String path, byte[] bytes) {
+                throw new IllegalArgumentException("broken");
+            }
+        }).build();
+        assertTrue(PackEncryptor.encrypt(input, encrypted, KEY, options));
+        assertTrue(PackEncryptor.decrypt(encrypted, decrypted, KEY));
+        try (var zip = new ZipFile(decrypted.toFile())) {
+            assertArrayEquals(files.get("textures/a.png"), zip.getInputStream(zip.getEntry("textures/a.png")).readAllBytes());
+        }
+    }
+
+    @Test
+    void testDeduplicate() throws IOException {
+        var texture = new byte[5000];
+        new Random(1).nextBytes(texture);
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        files.put("textures/stone.png", texture);
+        files.put("subpacks/high/textures/stone.png", texture);
+        files.put("subpacks/low/textures/stone.png", texture);
+        files.put("textures/other.png", "other".getBytes(StandardCharsets.UTF_8));
+        var input = tempDir.resolve("input.zip");
+        var encrypted = tempDir.resolve("encrypted.zip");
+        var decrypted = tempDir.resolve("decrypted.zip");
+        writeZip(input, files);
+
+        var reports = new ArrayList<EncryptReport>();
+        var options = EncryptOptions.builder().deduplicate(true).reportListener(reports::add).build();
+        assertTrue(PackEncryptor.encrypt(input, encrypted, KEY, options));
+        assertEquals(1, reports.size());
+        assertEquals(2, reports.get(0).getDuplicateFiles());
+        assertEquals(2L * texture.length, reports.get(0).getDuplicateBytes());
+
+        try (var zip = new ZipFile(encrypted.toFile())) {
+            // The same ciphertext, listed with the same key in the contents.json of every pack
+            var ciphertext = zip.getInputStream(zip.getEntry("textures/stone.png")).readAllBytes();
+            assertArrayEquals(ciphertext, zip.getInputStream(zip.getEntry("subpacks/high/textures/stone.png")).readAllBytes());
+            assertArrayEquals(ciphertext, zip.getInputStream(zip.getEntry("subpacks/low/textures/stone.png")).readAllBytes());
+            var key = entryKeys(zip, "").get("textures/stone.png");
+            assertNotNull(key);
+            assertEquals(key, entryKeys(zip, "subpacks/high/").get("textures/stone.png"));
+            assertEquals(key, entryKeys(zip, "subpacks/low/").get("textures/stone.png"));
+            assertNotEquals(key, entryKeys(zip, "").get("textures/other.png"));
+        }
+
+        assertTrue(PackEncryptor.decrypt(encrypted, decrypted, KEY));
+        assertContent(decrypted, files);
+    }
+
+    @Test
+    void testDeduplicateCrcCollision() throws IOException {
+        var content = new byte[5000];
+        new Random(2).nextBytes(content);
+        var collision = crcCollision(content);
+        assertFalse(Arrays.equals(content, collision));
+        assertEquals(crc(content), crc(collision));
+
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        files.put("textures/a.png", content);
+        files.put("subpacks/high/textures/a.png", collision);
+        var input = tempDir.resolve("input.zip");
+        var encrypted = tempDir.resolve("encrypted.zip");
+        var decrypted = tempDir.resolve("decrypted.zip");
+        writeZip(input, files);
+
+        var reports = new ArrayList<EncryptReport>();
+        var options = EncryptOptions.builder().deduplicate(true).reportListener(reports::add).build();
+        assertTrue(PackEncryptor.encrypt(input, encrypted, KEY, options));
+        // Same size and crc-32, but not the same file
+        assertEquals(0, reports.get(0).getDuplicateFiles());
+        assertTrue(PackEncryptor.decrypt(encrypted, decrypted, KEY));
+        assertContent(decrypted, files);
+    }
+
+    @Test
+    void testDecryptWithWrongKey() throws IOException {
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        files.put("textures/a.png", "a".getBytes(StandardCharsets.UTF_8));
+        var input = tempDir.resolve("input.zip");
+        var encrypted = tempDir.resolve("encrypted.zip");
+        var decrypted = tempDir.resolve("decrypted.zip");
+        writeZip(input, files);
+        assertTrue(PackEncryptor.encrypt(input, encrypted, KEY));
+        Files.writeString(decrypted, "previous output");
+
+        assertFalse(PackEncryptor.decrypt(encrypted, decrypted, "ABCDEFGHIJKLMNOPQRSTUVWXYZ012345"));
+        // The previous output is kept, and no temporary file is left behind
+        assertEquals("previous output", Files.readString(decrypted));
+        try (var list = Files.list(tempDir)) {
+            assertEquals(3, list.count());
+        }
+    }
+
+    @Test
+    void testDecryptProgress() throws IOException {
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("manifest.json", manifest());
+        for (int i = 0; i < 10; i++) {
+            files.put("textures/" + i + ".png", new byte[1000]);
+            files.put("subpacks/high/textures/" + i + ".png", new byte[1000]);
+        }
+        var input = tempDir.resolve("input.zip");
+        var encrypted = tempDir.resolve("encrypted.zip");
+        var decrypted = tempDir.resolve("decrypted.zip");
+        writeZip(input, files);
+        assertTrue(PackEncryptor.encrypt(input, encrypted, KEY));
+
+        var calls = new ArrayList<long[]>();
+        assertTrue(PackEncryptor.decrypt(encrypted, decrypted, KEY, (processed, total) -> calls.add(new long[]{processed, total})));
+        // One call per decrypted or copied file, and a last one once the pack is done
+        assertEquals(files.size() + 1, calls.size());
+        for (int i = 1; i < calls.size(); i++) {
+            assertTrue(calls.get(i)[0] >= calls.get(i - 1)[0], "progress must not go back");
+        }
+        var last = calls.get(calls.size() - 1);
+        assertEquals(last[1], last[0]);
+    }
+
+    /**
+     * Encrypt and decrypt the given files, and check that the decrypted pack has the same content.
+     *
+     * @return the encrypted pack
+     */
+    private Path assertRoundTrip(Map<String, byte[]> files) throws IOException {
+        var input = tempDir.resolve("input.zip");
+        var encrypted = tempDir.resolve("encrypted.zip");
+        var decrypted = tempDir.resolve("decrypted.zip");
+        writeZip(input, files);
+
+        assertTrue(PackEncryptor.encrypt(input, encrypted, KEY));
+        try (var zip = new ZipFile(encrypted.toFile())) {
+            assertNotNull(zip.getEntry("contents.json"));
+            for (var entry : files.entrySet()) {
+                var encryptedEntry = zip.getEntry(entry.getKey());
+                assertNotNull(encryptedEntry, entry.getKey());
+                if (!entry.getKey().equals("manifest.json") && !entry.getKey().equals("pack_icon.png")) {
+                    assertFalse(Arrays.equals(entry.getValue(), zip.getInputStream(encryptedEntry).readAllBytes()), entry.getKey());
+                }
+            }
+        }
+
+        assertTrue(PackEncryptor.decrypt(encrypted, decrypted, KEY));
+        assertContent(decrypted, files);
+        return encrypted;
+    }
+
+    private static void assertContent(Path pack, Map<String, byte[]> files) throws IOException {
+        try (var zip = new ZipFile(pack.toFile())) {
+            assertEquals(files.size(), zip.size());
+            for (var entry : files.entrySet()) {
+                var zipEntry = zip.getEntry(entry.getKey());
+                assertNotNull(zipEntry, entry.getKey());
+                assertArrayEquals(entry.getValue(), zip.getInputStream(zipEntry).readAllBytes(), entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Decrypt the contents.json of a pack or a sub pack.
+     *
+     * @return the entry keys by path, relative to the pack
+     */
+    private static Map<String, String> entryKeys(ZipFile zip, String packPath) throws IOException {
+        var bytes = zip.getInputStream(zip.getEntry(packPath + "contents.json")).readAllBytes();
+        // Skip the header, which is not encrypted
+        CFB8Cipher.get().init(Cipher.DECRYPT_MODE, KEY).update(bytes, 0x100, bytes.length - 0x100);
+        var json = new String(bytes, 0x100, bytes.length - 0x100, StandardCharsets.UTF_8);
+        var keys = new HashMap<String, String>();
+        for (var element : JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("content")) {
+            var entry = element.getAsJsonObject();
+            if (entry.has("key") && !entry.get("key").isJsonNull()) {
+                keys.put(entry.get("path").getAsString(), entry.get("key").getAsString());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Make another content with the same length and crc-32. The crc-32 is affine over GF(2), so
+     * flipping the first bit can be compensated by flipping a combination of the last 32 bits.
+     */
+    private static byte[] crcCollision(byte[] content) {
+        var length = content.length;
+        var zero = crc(new byte[length]);
+        // The basis of the effects of flipping each of the last 32 bits, indexed by its highest bit,
+        // with the combination of flipped bits that produces it
+        var basis = new int[32];
+        var combinations = new int[32];
+        for (int i = 0; i < 32; i++) {
+            var flip = new byte[length];
+            flip[length - 4 + i / 8] ^= (byte) (1 << (i % 8));
+            var effect = crc(flip) ^ zero;
+            var combination = 1 << i;
+            for (int bit = 31; bit >= 0 && effect != 0; bit--) {
+                if ((effect >>> bit & 1) == 0) {
+                    continue;
+                }
+                if (basis[bit] == 0) {
+                    basis[bit] = effect;
+                    combinations[bit] = combination;
+                    break;
+                }
+                effect ^= basis[bit];
+                combination ^= combinations[bit];
+            }
+        }
+
+        var flip = new byte[length];
+        flip[0] ^= 1;
+        var target = crc(flip) ^ zero;
+        var combination = 0;
+        for (int bit = 31; bit >= 0; bit--) {
+            if ((target >>> bit & 1) != 0) {
+                target ^= basis[bit];
+                combination ^= combinations[bit];
+            }
+        }
+        assertEquals(0, target);
+
+        var result = content.clone();
+        result[0] ^= 1;
+        for (int i = 0; i < 32; i++) {
+            if ((combination >>> i & 1) != 0) {
+                result[length - 4 + i / 8] ^= (byte) (1 << (i % 8));
+            }
+        }
+        return result;
+    }
+
+    private static int crc(byte[] bytes) {
+        var crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    static void writeZip(Path path, Map<String, byte[]> files) throws IOException {
+        try (var zip = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (var entry : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+    }
+
+    static byte[] manifest() {
+        return """
+                {
+                  "format_version": 2,
+                  "header": {
+                    "name": "Test",
+                    "uuid": "6f1a6a7e-9c3b-4c1e-8e0a-2c7d1f0b5a11",
+                    "version": [1, 0, 0]
+                  }
+                }""".getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean hasZip64EndRecord(Path zip) throws IOException {
+        try (var file = new RandomAccessFile(zip.toFile(), "r")) {
+            // The ZIP64 records are right before the classic end record, at the end of the file
+            var tail = new byte[(int) Math.min(1024, file.length())];
+            file.seek(file.length() - tail.length);
+            file.readFully(tail);
+            for (int i = 0; i <= tail.length - ZIP64_END_SIGNATURE.length; i++) {
+                if (Arrays.equals(tail, i, i + ZIP64_END_SIGNATURE.length, ZIP64_END_SIGNATURE, 0, ZIP64_END_SIGNATURE.length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
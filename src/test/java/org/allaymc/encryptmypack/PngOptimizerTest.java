@@ -0,0 +1,101 @@
+package org.allaymc.encryptmypack;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daoge_cmd
+ */
+class PngOptimizerTest {
+
+    private static final byte[] SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final PngOptimizer optimizer = new PngOptimizer();
+
+    @Test
+    void testKeepPixels() throws IOException {
+        var image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                image.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8 | 0xFF000000);
+            }
+        }
+        var output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        var bytes = output.toByteArray();
+
+        var optimized = optimizer.transform("a.png", bytes);
+        assertTrue(optimized.length <= bytes.length);
+        var decoded = ImageIO.read(new ByteArrayInputStream(optimized));
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                assertEquals(image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void testHugeChunkLength() {
+        // A corrupt chunk length close to Integer.MAX_VALUE must not overflow the bounds check
+        var bytes = ByteBuffer.allocate(SIGNATURE.length + 16)
+                .put(SIGNATURE)
+                .putInt(Integer.MAX_VALUE - 2)
+                .putInt(0x49444154)
+                .array();
+        assertThrows(IOException.class, () -> optimizer.transform("a.png", bytes));
+    }
+
+    @Test
+    void testDecompressionBomb() throws IOException {
+        // A 1x1 gray image needs 2 bytes of raw data, this image data inflates to 64 MiB of zeros
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        var chunk = new byte[1024 * 1024];
+        var compressed = new ByteArrayOutputStream();
+        var buffer = new byte[8192];
+        for (int i = 0; i < 64; i++) {
+            deflater.setInput(chunk);
+            while (!deflater.needsInput()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        var output = new ByteArrayOutputStream();
+        output.write(SIGNATURE);
+        writeChunk(output, "IHDR", ByteBuffer.allocate(13).putInt(1).putInt(1).put((byte) 8).array());
+        writeChunk(output, "IDAT", compressed.toByteArray());
+        writeChunk(output, "IEND", new byte[0]);
+        assertThrows(IOException.class, () -> optimizer.transform("a.png", output.toByteArray()));
+    }
+
+    @Test
+    void testNotPng() {
+        assertThrows(IOException.class, () -> optimizer.transform("a.png", new byte[]{1, 2, 3}));
+    }
+
+    private static void writeChunk(ByteArrayOutputStream output, String type, byte[] data) {
+        var crc = new CRC32();
+        crc.update(type.getBytes());
+        crc.update(data);
+        output.writeBytes(ByteBuffer.allocate(12 + data.length)
+                .putInt(data.length)
+                .put(type.getBytes())
+                .put(data)
+                .putInt((int) crc.getValue())
+                .array());
+    }
+}